@@ -0,0 +1,99 @@
+package com.caij.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/**
+ * How much {@link ExoMediaPlayer} buffers before starting and how far it reads ahead.
+ *
+ * <p>Pass one of the named profiles, or a {@link #custom custom} one, to
+ * {@link ExoMediaPlayer#ExoMediaPlayer(android.content.Context, BufferingProfile)}.
+ */
+public class BufferingProfile {
+
+    /**
+     * Short feed clips: start after half a second of media and read ahead very little.
+     */
+    public static final BufferingProfile FAST_START = new BufferingProfile("fast-start",
+            2000, 10000, 500, 1500, C.LENGTH_UNSET, true);
+
+    /**
+     * ExoPlayer's defaults, suited to long form content.
+     */
+    public static final BufferingProfile BALANCED = new BufferingProfile("balanced",
+            DefaultLoadControl.DEFAULT_MIN_BUFFER_MS,
+            DefaultLoadControl.DEFAULT_MAX_BUFFER_MS,
+            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+            DefaultLoadControl.DEFAULT_TARGET_BUFFER_BYTES,
+            DefaultLoadControl.DEFAULT_PRIORITIZE_TIME_OVER_SIZE_THRESHOLDS);
+
+    /**
+     * Metered networks: a small read-ahead capped in bytes, so abandoned videos waste little data.
+     */
+    public static final BufferingProfile DATA_SAVER = new BufferingProfile("data-saver",
+            3000, 8000, 1000, 2500, 4 * 1024 * 1024, false);
+
+    public final String name;
+    public final int minBufferMs;
+    public final int maxBufferMs;
+    public final int bufferForPlaybackMs;
+    public final int bufferForPlaybackAfterRebufferMs;
+    /**
+     * Byte budget of the buffer, {@link C#LENGTH_UNSET} to derive it from the selected tracks.
+     */
+    public final int targetBufferBytes;
+    public final boolean prioritizeTimeOverSizeThresholds;
+
+    private BufferingProfile(String name, int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                             int bufferForPlaybackAfterRebufferMs, int targetBufferBytes,
+                             boolean prioritizeTimeOverSizeThresholds) {
+        if (bufferForPlaybackMs > minBufferMs || bufferForPlaybackAfterRebufferMs > minBufferMs) {
+            throw new IllegalArgumentException("bufferForPlayback 不能大于 minBuffer");
+        }
+        if (minBufferMs > maxBufferMs) {
+            throw new IllegalArgumentException("minBuffer 不能大于 maxBuffer");
+        }
+        this.name = name;
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.targetBufferBytes = targetBufferBytes;
+        this.prioritizeTimeOverSizeThresholds = prioritizeTimeOverSizeThresholds;
+    }
+
+    /**
+     * @param minBufferMs                      keep at least this much media buffered.
+     * @param maxBufferMs                      stop loading once this much media is buffered.
+     * @param bufferForPlaybackMs              media needed to start playback or resume after a seek.
+     * @param bufferForPlaybackAfterRebufferMs media needed to resume after a stall.
+     * @param targetBufferBytes                byte budget, or {@link C#LENGTH_UNSET}.
+     * @param prioritizeTimeOverSizeThresholds whether the time limits win over the byte budget.
+     */
+    public static BufferingProfile custom(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                                          int bufferForPlaybackAfterRebufferMs, int targetBufferBytes,
+                                          boolean prioritizeTimeOverSizeThresholds) {
+        return new BufferingProfile("custom", minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs, targetBufferBytes, prioritizeTimeOverSizeThresholds);
+    }
+
+    /**
+     * @param targetBufferBytes overrides {@link #targetBufferBytes} when not {@link C#LENGTH_UNSET}.
+     */
+    LoadControl buildLoadControl(DefaultAllocator allocator, int targetBufferBytes) {
+        return new DefaultLoadControl.Builder()
+                .setAllocator(allocator)
+                .setBufferDurationsMs(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs)
+                .setTargetBufferBytes(targetBufferBytes != C.LENGTH_UNSET ? targetBufferBytes : this.targetBufferBytes)
+                .setPrioritizeTimeOverSizeThresholds(prioritizeTimeOverSizeThresholds)
+                .createDefaultLoadControl();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferingProfile{" + name + "}";
+    }
+}
@@ -0,0 +1,245 @@
+package com.caij.exoplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide LRU disk cache shared by every {@link ExoMediaPlayer}.
+ *
+ * <p>Call {@link #install(Context, long, CacheKeyFactory)} once, typically from
+ * {@code Application.onCreate}. Until then players go straight to the network.
+ *
+ * <p>Media bytes are cached whether or not the request has a known length. HLS, DASH and
+ * SmoothStreaming manifests are always loaded from the network, a cached live playlist would
+ * never advance.
+ */
+public class ExoMediaCache {
+
+    private static final String TAG = "ExoMediaCache";
+    private static final String CACHE_DIR = "exo_media_cache";
+    private static final long MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * Maps a media uri to the key its bytes are cached under. Uris that differ only in volatile
+     * parts (CDN signatures, tokens, expiry) should map to the same key.
+     */
+    public interface CacheKeyFactory {
+        String buildCacheKey(Uri uri);
+    }
+
+    /**
+     * Drops the given query parameters and keeps everything else, in order.
+     */
+    public static class IgnoreQueryKeyFactory implements CacheKeyFactory {
+
+        private final Set<String> mIgnoredParameters;
+
+        public IgnoreQueryKeyFactory(String... ignoredParameters) {
+            mIgnoredParameters = new HashSet<>(Arrays.asList(ignoredParameters));
+        }
+
+        @Override
+        public String buildCacheKey(Uri uri) {
+            if (uri.isOpaque() || uri.getQuery() == null) return uri.toString();
+            Uri.Builder builder = uri.buildUpon().clearQuery();
+            for (String name : uri.getQueryParameterNames()) {
+                if (mIgnoredParameters.contains(name)) continue;
+                for (String value : uri.getQueryParameters(name)) {
+                    builder.appendQueryParameter(name, value);
+                }
+            }
+            return builder.build().toString();
+        }
+    }
+
+    /**
+     * Signature and expiry parameters of common CDNs (Aliyun/Tencent auth_key and wsSecret,
+     * CloudFront, S3 presigned urls). Short generic names such as {@code t} are left out on purpose,
+     * many services use them to pick the content.
+     */
+    public static final String[] DEFAULT_IGNORED_PARAMETERS = {
+            "sign", "signature", "Signature", "token", "auth_key", "expires", "Expires",
+            "Policy", "Key-Pair-Id", "wsSecret", "wsTime",
+            "X-Amz-Algorithm", "X-Amz-Credential", "X-Amz-Date", "X-Amz-Expires",
+            "X-Amz-SignedHeaders", "X-Amz-Signature", "X-Amz-Security-Token"};
+
+    public static final CacheKeyFactory DEFAULT_KEY_FACTORY = new IgnoreQueryKeyFactory(DEFAULT_IGNORED_PARAMETERS);
+
+    /**
+     * @return a key factory that drops {@link #DEFAULT_IGNORED_PARAMETERS} and the app's own
+     * volatile parameters, e.g. the {@code t}/{@code e} of a CDN known to only use them for signing.
+     */
+    public static CacheKeyFactory defaultKeyFactoryIgnoring(String... extraParameters) {
+        String[] parameters = Arrays.copyOf(DEFAULT_IGNORED_PARAMETERS,
+                DEFAULT_IGNORED_PARAMETERS.length + extraParameters.length);
+        System.arraycopy(extraParameters, 0, parameters, DEFAULT_IGNORED_PARAMETERS.length, extraParameters.length);
+        return new IgnoreQueryKeyFactory(parameters);
+    }
+
+    private static volatile ExoMediaCache sInstance;
+
+    private final SimpleCache mCache;
+    private final CacheKeyFactory mKeyFactory;
+
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mCachedBytesRead = new AtomicLong();
+    private final AtomicLong mCacheIgnoredCount = new AtomicLong();
+
+    private ExoMediaCache(File dir, long maxBytes, CacheKeyFactory keyFactory) {
+        mCache = new SimpleCache(dir, new LeastRecentlyUsedCacheEvictor(maxBytes));
+        mKeyFactory = keyFactory == null ? DEFAULT_KEY_FACTORY : keyFactory;
+    }
+
+    /**
+     * Installs the shared cache. Only the first call has an effect.
+     *
+     * @param maxBytes   disk budget, least recently used content is evicted beyond it.
+     * @param keyFactory cache key function, {@link #DEFAULT_KEY_FACTORY} if null.
+     */
+    public static synchronized void install(Context context, long maxBytes, CacheKeyFactory keyFactory) {
+        if (sInstance != null) {
+            Log.w(TAG, "cache already installed");
+            return;
+        }
+        File dir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+        sInstance = new ExoMediaCache(dir, maxBytes, keyFactory);
+    }
+
+    /**
+     * @return the installed cache, or null.
+     */
+    public static ExoMediaCache get() {
+        return sInstance;
+    }
+
+    DataSource.Factory buildDataSourceFactory(final DataSource.Factory upstreamFactory) {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                CacheDataSource cacheDataSource = new CacheDataSource(mCache,
+                        upstreamFactory.createDataSource(),
+                        new FileDataSource(),
+                        new CacheDataSink(mCache, MAX_CACHE_FILE_SIZE),
+                        CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR,
+                        mEventListener);
+                return new KeyedDataSource(cacheDataSource, upstreamFactory.createDataSource());
+            }
+        };
+    }
+
+    public long getCacheSpace() {
+        return mCache.getCacheSpace();
+    }
+
+    /**
+     * @return bytes served from disk instead of the network.
+     */
+    public long getBytesSaved() {
+        return mCachedBytesRead.get();
+    }
+
+    public long getBytesRead() {
+        return mBytesRead.get();
+    }
+
+    /**
+     * @return share of the bytes read through the cache that came from disk.
+     */
+    public float getHitRatio() {
+        long read = mBytesRead.get();
+        return read == 0 ? 0 : mCachedBytesRead.get() * 1f / read;
+    }
+
+    public long getCacheIgnoredCount() {
+        return mCacheIgnoredCount.get();
+    }
+
+    private final CacheDataSource.EventListener mEventListener = new CacheDataSource.EventListener() {
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+            mCachedBytesRead.addAndGet(cachedBytesRead);
+        }
+
+        @Override
+        public void onCacheIgnored(int reason) {
+            mCacheIgnoredCount.incrementAndGet();
+        }
+    };
+
+    /**
+     * Fills in {@link DataSpec#key} from the key factory so signed urls share cache entries, and
+     * sends manifest requests past the cache.
+     */
+    private class KeyedDataSource implements DataSource {
+
+        private final DataSource mCacheDataSource;
+        private final DataSource mNetworkDataSource;
+        private DataSource mUpstream;
+
+        KeyedDataSource(DataSource cacheDataSource, DataSource networkDataSource) {
+            mCacheDataSource = cacheDataSource;
+            mNetworkDataSource = networkDataSource;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            mCacheDataSource.addTransferListener(transferListener);
+            mNetworkDataSource.addTransferListener(transferListener);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            if (Util.inferContentType(dataSpec.uri) != C.TYPE_OTHER) {
+                mUpstream = mNetworkDataSource;
+                return mUpstream.open(dataSpec);
+            }
+            if (dataSpec.key == null) {
+                dataSpec = new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition, dataSpec.position,
+                        dataSpec.length, mKeyFactory.buildCacheKey(dataSpec.uri), dataSpec.flags);
+            }
+            mUpstream = mCacheDataSource;
+            return mUpstream.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            int read = mUpstream.read(buffer, offset, readLength);
+            if (read > 0 && mUpstream == mCacheDataSource) mBytesRead.addAndGet(read);
+            return read;
+        }
+
+        @Override
+        public Uri getUri() {
+            return mUpstream == null ? null : mUpstream.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mUpstream == null) return;
+            try {
+                mUpstream.close();
+            } finally {
+                mUpstream = null;
+            }
+        }
+    }
+}
@@ -1,54 +1,59 @@
 package com.caij.exoplayer;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Handler;
-import android.text.TextUtils;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import com.caij.video.BytesLoadedProvider;
 import com.caij.video.ExMediaPlayer;
+import com.caij.video.PlayerOptions;
+import com.caij.video.TrackConstraints;
+import com.caij.video.TrackInfo;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.SeekParameters;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.mediacodec.MediaCodecRenderer;
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.source.UnrecognizedInputFormatException;
 import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.util.Util;
 import com.google.android.exoplayer2.video.VideoListener;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class ExoMediaPlayer implements ExMediaPlayer {
+public class ExoMediaPlayer implements ExMediaPlayer, BytesLoadedProvider {
 
     private static final String TAG = "ExoMediaPlayer";
 
@@ -58,15 +63,11 @@ public class ExoMediaPlayer implements ExMediaPlayer {
     private static final int PLAYER_STATUS_PREPARED  = 4;
     private static final int PLAYER_STATUS_END = 5;
 
-    private static final DefaultBandwidthMeter BANDWIDTH_METER = new DefaultBandwidthMeter();
-    private static final int BUFFER_REPEAT_DELAY = 1000;
-
-    private static final Map<String, String> mCacheUrls = new ConcurrentHashMap<>();
-
-    private ThreadPoolExecutor mThreadPoolExecutor;
+    public static final long DEFAULT_BUFFERING_UPDATE_INTERVAL_MS = 1000;
 
     private SimpleExoPlayer mExoPlayer;
     private Context mAppContext;
+    private DefaultTrackSelector mTrackSelector;
 
     private int mVideoWidth;
     private int mVideoHeight;
@@ -77,7 +78,8 @@ public class ExoMediaPlayer implements ExMediaPlayer {
 
     private OnPreparedListener mOnPreparedListener;
     private OnCompletionListener mOnCompletionListener;
-    private OnBufferingUpdateListener mOnBufferingUpdateListener;
+    // 加载线程也会读
+    private volatile OnBufferingUpdateListener mOnBufferingUpdateListener;
     private OnSeekCompleteListener mOnSeekCompleteListener;
     private OnVideoSizeChangedListener mOnVideoSizeChangedListener;
     private OnErrorListener mOnErrorListener;
@@ -85,20 +87,63 @@ public class ExoMediaPlayer implements ExMediaPlayer {
     private Player.EventListener mExo2EventListener;
     private ExoVideoListener mExoVideoListener;
 
-    private Repeater mBufferUpdateRepeater;
+    private long mBufferingUpdateIntervalMs = DEFAULT_BUFFERING_UPDATE_INTERVAL_MS;
+    private volatile long mLastBufferingUpdateAt;
+    private final AtomicBoolean mBufferingUpdatePending = new AtomicBoolean();
+    private int mLastBufferedPercent = -1;
+    private int mBufferingUpdateWakeups;
+    private int mSessionWakeups;
+    private long mSessionStartedAt;
+    private final Runnable mBufferingUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mBufferingUpdatePending.set(false);
+            mBufferingUpdateWakeups++;
+            mSessionWakeups++;
+            dispatchBufferingUpdate();
+        }
+    };
 
     private int mPlayerStatus = PLAYER_STATUS_IDLE;
 
     private Uri mUri;
     private Map<String, String> mHeaders;
 
-    private AsyncTask mMediaAsyncTask;
+    private Handler mHandler;
+    private RedirectResolver.Request mResolveRequest;
+    private RedirectResolver.Request mNextResolveRequest;
+    private final Runnable mUnsupportedTypeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            notifyOnError(EXO_MEDIA_ERROR_WHAT_UNSUPPORTED_TYPE, EXO_MEDIA_ERROR_EXTRA_UNKNOWN);
+        }
+    };
+
+    // 下一个视频直接接在同一个播放器的播放列表后面, 第0个总是当前播放的
+    private ConcatenatingMediaSource mMediaSource;
+    private MediaSource mPendingNextSource;
+
+    private final BytesCounter mBytesCounter = new BytesCounter();
+
+    private final BufferingProfile mBufferingProfile;
+    private final DefaultAllocator mAllocator;
+    private final SwitchableLoadControl mLoadControl;
+    private int mTargetBufferBytes = C.LENGTH_UNSET;
+    private PlayerOptions mOptions = new PlayerOptions();
 
     public ExoMediaPlayer(Context context) {
+        this(context, BufferingProfile.BALANCED);
+    }
+
+    public ExoMediaPlayer(Context context, BufferingProfile bufferingProfile) {
         mAppContext = context.getApplicationContext();
-        TrackSelection.Factory selectionFactory = new AdaptiveTrackSelection.Factory(new DefaultBandwidthMeter());
+        TrackSelection.Factory selectionFactory = new AdaptiveTrackSelection.Factory(SharedBandwidthMeter.get(mAppContext));
         DefaultTrackSelector trackSelector = new DefaultTrackSelector(selectionFactory);
-        mExoPlayer = ExoPlayerFactory.newSimpleInstance(mAppContext, trackSelector);
+        mTrackSelector = trackSelector;
+        mBufferingProfile = bufferingProfile;
+        mAllocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+        mLoadControl = new SwitchableLoadControl(mAllocator, bufferingProfile.buildLoadControl(mAllocator, C.LENGTH_UNSET));
+        mExoPlayer = ExoPlayerFactory.newSimpleInstance(mAppContext, trackSelector, mLoadControl);
 
         mExoVideoListener = new ExoVideoListener();
         mExoPlayer.addVideoListener(mExoVideoListener);
@@ -106,43 +151,68 @@ public class ExoMediaPlayer implements ExMediaPlayer {
         mExo2EventListener = new Exo2EventListener();
         mExoPlayer.addListener(mExo2EventListener);
 
-        Handler mMainHandler = new Handler();
-
-        mBufferUpdateRepeater = new Repeater(mMainHandler);
-        mBufferUpdateRepeater.setRepeaterDelay(BUFFER_REPEAT_DELAY);
-        mBufferUpdateRepeater.setRepeatListener(new Repeater.RepeatListener() {
-            @Override
-            public void onUpdate() {
-                if (mExoPlayer != null) {
-                    int state = mExoPlayer.getPlaybackState();
-                    switch (state) {
-                        case Player.STATE_IDLE:
-                        case Player.STATE_ENDED:
-                            setBufferRepeaterStarted(false);
-                            break;
-                        case Player.STATE_READY:
-                        case Player.STATE_BUFFERING:
-                            notifyOnBufferingUpdate(getBufferedPercentage());
-                            break;
-                    }
-                }
-            }
-        });
+        mHandler = new Handler();
 
         mStateStore = new StateStore();
     }
 
-    private void initThreadPoolExecutor() {
-        if (mThreadPoolExecutor == null) {
-            mThreadPoolExecutor = new ThreadPoolExecutor(0, 1,
-                    60 * 1000L, TimeUnit.MILLISECONDS,
-                    new LinkedBlockingQueue<Runnable>());
+    private void prepareMediaSource(int type) {
+        notifyOnInfo(MEDIA_INFO_DATA_SOURCE_RESOLVED, 0);
+        MediaSource source = buildMediaSource(mAppContext, mUri, mHeaders, type, mBytesCounter);
+        if (source == null) {
+            // 和其它错误一样异步回调, 不能在prepareAsync或解析回调里抛异常
+            mHandler.post(mUnsupportedTypeRunnable);
+            return;
+        }
+        mMediaSource = new ConcatenatingMediaSource(source);
+        if (mPendingNextSource != null) {
+            mMediaSource.addMediaSource(mPendingNextSource);
+            mPendingNextSource = null;
+        }
+        mExoPlayer.prepare(mMediaSource);
+    }
+
+    private void applyOptions() {
+        int targetBufferBytes = mOptions.getMaxBufferSize() != null ? mOptions.getMaxBufferSize() : C.LENGTH_UNSET;
+        if (targetBufferBytes != mTargetBufferBytes) {
+            mLoadControl.setDelegate(mBufferingProfile.buildLoadControl(mAllocator, targetBufferBytes));
+            mTargetBufferBytes = targetBufferBytes;
+        }
+    }
+
+    private static boolean isHttpUri(Uri uri) {
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    /**
+     * 优先用探测到的类型, 其次用跳转后的地址推断
+     */
+    private static int resolveType(String resolvedUrl, int contentType) {
+        if (contentType != MediaTypeSniffer.TYPE_UNKNOWN || resolvedUrl == null) {
+            return contentType;
+        }
+        return MediaTypeSniffer.inferFromUri(Uri.parse(resolvedUrl));
+    }
+
+    private void cancelResolveRequest() {
+        if (mResolveRequest != null) {
+            mResolveRequest.cancel();
+            mResolveRequest = null;
+        }
+    }
+
+    private void cancelNextResolveRequest() {
+        if (mNextResolveRequest != null) {
+            mNextResolveRequest.cancel();
+            mNextResolveRequest = null;
         }
     }
 
     @Override
     public synchronized void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         checkIdlePlayerStatus();
+        mBytesCounter.reset();
         mUri = uri;
         mHeaders = null;
         mPlayerStatus = PLAYER_STATUS_INITIALIZIZED;
@@ -151,6 +221,7 @@ public class ExoMediaPlayer implements ExMediaPlayer {
     @Override
     public synchronized void setDataSource(Context context, Uri uri, Map<String, String> headers) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         checkIdlePlayerStatus();
+        mBytesCounter.reset();
         mUri = uri;
         mHeaders = headers;
         mPlayerStatus = PLAYER_STATUS_INITIALIZIZED;
@@ -159,6 +230,7 @@ public class ExoMediaPlayer implements ExMediaPlayer {
     @Override
     public synchronized void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         checkIdlePlayerStatus();
+        mBytesCounter.reset();
         mUri =  Uri.parse(path);
         mHeaders = null;
         mPlayerStatus = PLAYER_STATUS_INITIALIZIZED;
@@ -170,71 +242,35 @@ public class ExoMediaPlayer implements ExMediaPlayer {
         }
     }
 
-    @SuppressLint("StaticFieldLeak")
     @Override
     public synchronized void prepareAsync() throws IllegalStateException {
         Log.v(TAG, "prepareAsync");
         mExoPlayer.setPlayWhenReady(false);
 
-        if (mMediaAsyncTask != null) {
-            mMediaAsyncTask.cancel(true);
-        }
+        cancelResolveRequest();
+        applyOptions();
+        mSessionWakeups = 0;
+        mSessionStartedAt = SystemClock.elapsedRealtime();
 
         if (mUri != null) {
-            MediaSource mediaSource = buildMediaSource(mAppContext, mUri, mHeaders, null);
-            if (mediaSource != null) {
-                mExoPlayer.prepare(mediaSource);
+            int type = MediaTypeSniffer.inferFromUri(mUri);
+            if (type != MediaTypeSniffer.TYPE_UNKNOWN || !isHttpUri(mUri)) {
+                prepareMediaSource(type);
             } else {
                 final String urlstr = mUri.toString();
-                String realUrl = mCacheUrls.get(urlstr);
-                if (!TextUtils.isEmpty(realUrl)) {
-                    mediaSource = buildMediaSource(mAppContext, mUri, mHeaders, Uri.parse(realUrl));
-                    if (mediaSource == null) {
-                        mediaSource = buildDefaultMediaSource(mAppContext, mUri, mHeaders);
-                    }
-                    mExoPlayer.prepare(mediaSource);
+                RedirectCache.Entry entry = RedirectCache.getDefault().get(urlstr);
+                if (entry != null) {
+                    prepareMediaSource(resolveType(entry.resolvedUrl, entry.contentType));
                 } else {
-                    initThreadPoolExecutor();
-                    mMediaAsyncTask = new AsyncTask<Void, Void, String>(){
-                        @Override
-                        protected String doInBackground(Void... voids) {
-                            HttpURLConnection conn = null;
-                            try {
-                                URL url = new URL(urlstr);
-                                conn = (HttpURLConnection) url.openConnection();
-                                conn.getResponseCode();
-                                return conn.getURL().toString();
-                            } catch (Exception e) {
-                                Log.d(TAG, "get video url Exception " + e.getMessage());
-                            } finally {
-                                if(conn != null)  conn.disconnect();
-                            }
-                            return null;
-                        }
-
-                        @Override
-                        protected void onPostExecute(String realUrl) {
-                            if (realUrl != null) {
-                                MediaSource mediaSource = buildMediaSource(mAppContext, mUri, mHeaders, Uri.parse(realUrl));
-                                if (mediaSource == null) {
-                                    mediaSource = buildDefaultMediaSource(mAppContext, mUri, mHeaders);
+                    mResolveRequest = RedirectResolver.getInstance().resolve(urlstr, mHeaders, mHandler,
+                            new RedirectResolver.Callback() {
+                                @Override
+                                public void onResolved(String url, String realUrl, int contentType) {
+                                    mResolveRequest = null;
+                                    if (mExoPlayer == null) return;
+                                    prepareMediaSource(resolveType(realUrl, contentType));
                                 }
-                                mExoPlayer.prepare(mediaSource);
-                                mCacheUrls.put(urlstr, realUrl);
-                            } else {
-                                MediaSource mediaSource = buildDefaultMediaSource(mAppContext, mUri, mHeaders);
-                                mExoPlayer.prepare(mediaSource);
-                            }
-                        }
-
-                        @Override
-                        protected void onCancelled(String realUrl) {
-                            super.onCancelled(realUrl);
-                            if (!TextUtils.isEmpty(realUrl)) {
-                                mCacheUrls.put(urlstr, realUrl);
-                            }
-                        }
-                    }.executeOnExecutor(mThreadPoolExecutor);
+                            });
                 }
             }
         }
@@ -273,32 +309,54 @@ public class ExoMediaPlayer implements ExMediaPlayer {
 
     @Override
     public void seekTo(int msec) throws IllegalStateException {
+        seekTo(msec, SEEK_CLOSEST);
+    }
+
+    @Override
+    public void seekTo(int msec, int mode) throws IllegalStateException {
         if (mExoPlayer == null) {
             return;
         }
+        mExoPlayer.setSeekParameters(mode == SEEK_CLOSEST_SYNC ? SeekParameters.CLOSEST_SYNC : SeekParameters.EXACT);
         mExoPlayer.seekTo(msec);
     }
 
     @Override
     public synchronized void reset() {
         Log.v(TAG, "reset");
+        logBufferingUpdateWakeups();
         if (mExoPlayer != null) {
             mExoPlayer.setPlayWhenReady(false);
             mExoPlayer.stop(true);
 
             mStateStore.reset();
 
+            // stop不会恢复这些, 和其它引擎一样reset后回到默认值
             isLooping = false;
-
-            setBufferRepeaterStarted(false);
+            mExoPlayer.setRepeatMode(Player.REPEAT_MODE_OFF);
+            mExoPlayer.setVolume(1f);
+            mExoPlayer.setPlaybackParameters(PlaybackParameters.DEFAULT);
         }
 
-        if (mMediaAsyncTask != null) mMediaAsyncTask.cancel(true);
+        // 手动选择的轨道和码率限制都只对当前使用者有效
+        mTrackSelector.setParameters(mTrackSelector.buildUponParameters()
+                .clearSelectionOverrides()
+                .clearVideoSizeConstraints()
+                .setMaxVideoBitrate(Integer.MAX_VALUE)
+                .build());
+        mMediaSource = null;
+        mPendingNextSource = null;
+        cancelBufferingUpdate();
+        mHandler.removeCallbacks(mUnsupportedTypeRunnable);
+
+        cancelResolveRequest();
+        cancelNextResolveRequest();
         mPlayerStatus = PLAYER_STATUS_IDLE;
     }
 
     @Override
     public synchronized void release() {
+        logBufferingUpdateWakeups();
         if (mExoPlayer != null) {
             mExoPlayer.removeListener(mExo2EventListener);
             mExoPlayer.removeVideoListener(mExoVideoListener);
@@ -306,9 +364,11 @@ public class ExoMediaPlayer implements ExMediaPlayer {
 
             mExoPlayer = null;
             mExo2EventListener = null;
+            mMediaSource = null;
+            mPendingNextSource = null;
 
-
-            setBufferRepeaterStarted(false);
+            cancelBufferingUpdate();
+            mHandler.removeCallbacks(mUnsupportedTypeRunnable);
 
             mOnPreparedListener = null;
             mOnCompletionListener = null;
@@ -319,8 +379,8 @@ public class ExoMediaPlayer implements ExMediaPlayer {
             mOnInfoListener = null;
         }
 
-        if (mMediaAsyncTask != null) mMediaAsyncTask.cancel(true);
-        if (mThreadPoolExecutor != null) mThreadPoolExecutor.shutdown();
+        cancelResolveRequest();
+        cancelNextResolveRequest();
         mPlayerStatus = PLAYER_STATUS_END;
     }
 
@@ -383,7 +443,8 @@ public class ExoMediaPlayer implements ExMediaPlayer {
     @Override
     public void setLooping(boolean looping) {
         if (mExoPlayer != null) {
-            mExoPlayer.setRepeatMode(looping ? Player.REPEAT_MODE_ALL : Player.REPEAT_MODE_OFF);
+            // 只循环当前的, 和其它引擎一样循环时不切到下一个
+            mExoPlayer.setRepeatMode(looping ? Player.REPEAT_MODE_ONE : Player.REPEAT_MODE_OFF);
         }
         isLooping = looping;
     }
@@ -412,9 +473,74 @@ public class ExoMediaPlayer implements ExMediaPlayer {
         // TODO: 2018/7/9
     }
 
+    /**
+     * Appends the source of {@code nextMediaPlayer} to this player's playlist, so the switch needs
+     * no new decoder or surface. {@code nextMediaPlayer} only provides the data source and does not
+     * have to be prepared; this player reports {@link #MEDIA_INFO_STARTED_AS_NEXT} when it starts
+     * playing it. A next source that has not started yet is replaced. Its type is detected like in
+     * {@link #prepareAsync()}, so it may be appended a little later. A DASH/SS next source whose
+     * module is missing is not appended, this player then just completes. While looping the next
+     * source stays queued and is played once looping is turned off.
+     */
     @Override
     public void setNextMediaPlayer(ExMediaPlayer nextMediaPlayer) throws UnsupportedOperationException {
-        throw new UnsupportedOperationException("setNextMediaPlayer is not supported by ");
+        if (nextMediaPlayer != null && !(nextMediaPlayer instanceof ExoMediaPlayer)) {
+            throw new UnsupportedOperationException("next player 必须也是 ExoMediaPlayer");
+        }
+        cancelNextResolveRequest();
+        if (nextMediaPlayer == null) {
+            setNextSource(null);
+            return;
+        }
+        ExoMediaPlayer next = (ExoMediaPlayer) nextMediaPlayer;
+        if (next.mUri == null) throw new IllegalStateException("next player 没有设置url");
+        final Uri uri = next.mUri;
+        final Map<String, String> headers = next.mHeaders;
+        int type = MediaTypeSniffer.inferFromUri(uri);
+        if (type == MediaTypeSniffer.TYPE_UNKNOWN && isHttpUri(uri)) {
+            RedirectCache.Entry entry = RedirectCache.getDefault().get(uri.toString());
+            if (entry == null) {
+                // 旧的下一个先去掉, 探测完再加
+                setNextSource(null);
+                mNextResolveRequest = RedirectResolver.getInstance().resolve(uri.toString(), headers, mHandler,
+                        new RedirectResolver.Callback() {
+                            @Override
+                            public void onResolved(String url, String realUrl, int contentType) {
+                                mNextResolveRequest = null;
+                                if (mExoPlayer == null) return;
+                                setNextSource(buildMediaSource(mAppContext, uri, headers,
+                                        resolveType(realUrl, contentType), mBytesCounter));
+                            }
+                        });
+                return;
+            }
+            type = resolveType(entry.resolvedUrl, entry.contentType);
+        }
+        setNextSource(buildMediaSource(mAppContext, uri, headers, type, mBytesCounter));
+    }
+
+    private void setNextSource(MediaSource nextSource) {
+        if (mMediaSource == null) {
+            // 还在解析跳转, 准备时再加进去
+            mPendingNextSource = nextSource;
+            return;
+        }
+        if (mMediaSource.getSize() > 1) mMediaSource.removeMediaSource(1);
+        if (nextSource != null) mMediaSource.addMediaSource(nextSource);
+    }
+
+    /**
+     * Exo没有对应的探测参数和丢帧策略, 断线总是会重试, 而且只支持硬解
+     */
+    @Override
+    public List<String> setOptions(PlayerOptions options) {
+        mOptions = options;
+        List<String> unsupported = options.keys();
+        unsupported.remove(PlayerOptions.START_ON_PREPARED);
+        unsupported.remove(PlayerOptions.MAX_BUFFER_SIZE);
+        if (Boolean.TRUE.equals(options.getReconnect())) unsupported.remove(PlayerOptions.RECONNECT);
+        if (Boolean.TRUE.equals(options.getHardwareDecode())) unsupported.remove(PlayerOptions.HARDWARE_DECODE);
+        return unsupported;
     }
 
     @Override
@@ -430,7 +556,41 @@ public class ExoMediaPlayer implements ExMediaPlayer {
     @Override
     public void setOnBufferingUpdateListener(OnBufferingUpdateListener listener) {
         mOnBufferingUpdateListener = listener;
-        setBufferRepeaterStarted(listener != null);
+        if (listener == null) cancelBufferingUpdate();
+    }
+
+    /**
+     * @param intervalMs minimum time between two buffering updates, they are only sent while media
+     *                   is loading.
+     */
+    public void setBufferingUpdateIntervalMs(long intervalMs) {
+        mBufferingUpdateIntervalMs = intervalMs;
+    }
+
+    /**
+     * @return how many times the main thread was woken up to send a buffering update.
+     */
+    public int getBufferingUpdateWakeups() {
+        return mBufferingUpdateWakeups;
+    }
+
+    /**
+     * @return main thread wakeups per minute for buffering updates since the last prepareAsync,
+     * 0 before it is called.
+     */
+    public float getBufferingUpdateWakeupsPerMinute() {
+        if (mSessionStartedAt == 0) return 0;
+        long elapsed = SystemClock.elapsedRealtime() - mSessionStartedAt;
+        return elapsed <= 0 ? 0 : mSessionWakeups * 60000f / elapsed;
+    }
+
+    private void logBufferingUpdateWakeups() {
+        if (mSessionStartedAt == 0) return;
+        // 原来的Repeater固定每分钟60次
+        Log.d(TAG, "buffering update wakeups " + mSessionWakeups + " in "
+                + (SystemClock.elapsedRealtime() - mSessionStartedAt) + "ms, "
+                + getBufferingUpdateWakeupsPerMinute() + "/min");
+        mSessionStartedAt = 0;
     }
 
     @Override
@@ -453,6 +613,89 @@ public class ExoMediaPlayer implements ExMediaPlayer {
         mOnInfoListener = listener;
     }
 
+    /**
+     * index = renderer << 16 | group << 8 | track
+     */
+    @Override
+    public List<TrackInfo> getTrackInfo() {
+        List<TrackInfo> tracks = new ArrayList<>();
+        MappingTrackSelector.MappedTrackInfo mappedTrackInfo = mTrackSelector.getCurrentMappedTrackInfo();
+        if (mappedTrackInfo == null || mExoPlayer == null) return tracks;
+        TrackSelectionArray selections = mExoPlayer.getCurrentTrackSelections();
+        for (int renderer = 0; renderer < mappedTrackInfo.getRendererCount(); renderer++) {
+            int type = toTrackType(mappedTrackInfo.getRendererType(renderer));
+            if (type == TrackInfo.TYPE_UNKNOWN) continue;
+            TrackSelection selection = selections.get(renderer);
+            Format selectedFormat = selection == null ? null : selection.getSelectedFormat();
+            TrackGroupArray groups = mappedTrackInfo.getTrackGroups(renderer);
+            for (int group = 0; group < groups.length; group++) {
+                TrackGroup trackGroup = groups.get(group);
+                for (int track = 0; track < trackGroup.length; track++) {
+                    Format format = trackGroup.getFormat(track);
+                    tracks.add(new TrackInfo(renderer << 16 | group << 8 | track, type,
+                            format.bitrate != Format.NO_VALUE ? format.bitrate : TrackInfo.UNKNOWN,
+                            format.width != Format.NO_VALUE ? format.width : TrackInfo.UNKNOWN,
+                            format.height != Format.NO_VALUE ? format.height : TrackInfo.UNKNOWN,
+                            format.codecs != null ? format.codecs : format.sampleMimeType,
+                            format.language, format == selectedFormat));
+                }
+            }
+        }
+        return tracks;
+    }
+
+    private static int toTrackType(int rendererType) {
+        switch (rendererType) {
+            case C.TRACK_TYPE_VIDEO:
+                return TrackInfo.TYPE_VIDEO;
+            case C.TRACK_TYPE_AUDIO:
+                return TrackInfo.TYPE_AUDIO;
+            case C.TRACK_TYPE_TEXT:
+                return TrackInfo.TYPE_TEXT;
+            default:
+                return TrackInfo.TYPE_UNKNOWN;
+        }
+    }
+
+    @Override
+    public void selectTrack(int index) throws UnsupportedOperationException {
+        MappingTrackSelector.MappedTrackInfo mappedTrackInfo = mTrackSelector.getCurrentMappedTrackInfo();
+        if (mappedTrackInfo == null) throw new IllegalStateException("还没有prepared");
+        int renderer = index >> 16;
+        int group = index >> 8 & 0xFF;
+        int track = index & 0xFF;
+        if (renderer >= mappedTrackInfo.getRendererCount()) throw new IllegalArgumentException("无效的track " + index);
+        mTrackSelector.setParameters(mTrackSelector.buildUponParameters()
+                .setRendererDisabled(renderer, false)
+                .setSelectionOverride(renderer, mappedTrackInfo.getTrackGroups(renderer),
+                        new DefaultTrackSelector.SelectionOverride(group, track))
+                .build());
+    }
+
+    @Override
+    public void clearTrackSelection(int type) throws UnsupportedOperationException {
+        MappingTrackSelector.MappedTrackInfo mappedTrackInfo = mTrackSelector.getCurrentMappedTrackInfo();
+        if (mappedTrackInfo == null) return;
+        DefaultTrackSelector.ParametersBuilder builder = mTrackSelector.buildUponParameters();
+        for (int renderer = 0; renderer < mappedTrackInfo.getRendererCount(); renderer++) {
+            if (toTrackType(mappedTrackInfo.getRendererType(renderer)) == type) {
+                builder.clearSelectionOverrides(renderer);
+            }
+        }
+        mTrackSelector.setParameters(builder.build());
+    }
+
+    /**
+     * 自适应选择会在限制内切换, 已经手动选择的轨道不受影响
+     */
+    @Override
+    public void setTrackConstraints(TrackConstraints constraints) throws UnsupportedOperationException {
+        mTrackSelector.setParameters(mTrackSelector.buildUponParameters()
+                .setMaxVideoBitrate(constraints.getMaxVideoBitrate())
+                .setMaxVideoSize(constraints.getMaxVideoWidth(), constraints.getMaxVideoHeight())
+                .build());
+    }
+
     private boolean notifyOnInfo(int what, int extra) {
         return mOnInfoListener != null && mOnInfoListener.onInfo(this, what, extra);
     }
@@ -463,49 +706,43 @@ public class ExoMediaPlayer implements ExMediaPlayer {
     }
 
     /**
-     * @param context
-     * @param uri
-     * @return
+     * @param type {@link C.ContentType}, unknown types are played with the extractor source.
+     * @return null if the type needs a module the app did not add.
      */
-    private static MediaSource buildMediaSource(Context context, Uri uri, Map<String, String> heads, Uri overrideUri) {
-        @C.ContentType int type = Util.inferContentType(overrideUri == null ? uri : overrideUri);
+    private static MediaSource buildMediaSource(Context context, Uri uri, Map<String, String> heads, int type,
+                                                TransferListener transferListener) {
+        DataSource.Factory dataSourceFactory = buildHttpDataSourceFactory(context, SharedBandwidthMeter.get(context), heads, transferListener);
         switch (type) {
             case C.TYPE_HLS:
-                return new HlsMediaSource.Factory(buildHttpDataSourceFactory(context, BANDWIDTH_METER, heads))
+                return new HlsMediaSource.Factory(dataSourceFactory)
                         .createMediaSource(uri);
-            case C.TYPE_OTHER:
-                String path = uri.getPath();
-                if (!TextUtils.isEmpty(path)) {
-                    if (path.endsWith(".mp4") || path.endsWith(".MP4")) {
-                        return new ExtractorMediaSource.Factory(buildHttpDataSourceFactory(context, BANDWIDTH_METER, heads))
-                                .createMediaSource(uri);
-                    } else if (path.endsWith(".m3u8") || path.endsWith(".M3U8")) {
-                        return new HlsMediaSource.Factory(buildHttpDataSourceFactory(context, BANDWIDTH_METER, heads))
-                                .createMediaSource(uri);
-                    }
-                }
-                break;
             case C.TYPE_DASH:
-                Log.d(TAG, "build source TYPE_DASH " + uri.toString() + "  " + (overrideUri != null ? overrideUri.toString() : ""));
-                throw new IllegalArgumentException("不支持这种类型，请扩展");
+                return StreamingMediaSources.buildDashMediaSource(uri, dataSourceFactory);
             case C.TYPE_SS:
-                throw new IllegalArgumentException("不支持这种类型，请扩展");
+                return StreamingMediaSources.buildSsMediaSource(uri, dataSourceFactory);
+            case C.TYPE_OTHER:
+            default:
+                return new ExtractorMediaSource.Factory(dataSourceFactory)
+                        .createMediaSource(uri);
         }
-        return null;
     }
 
-    private static MediaSource buildDefaultMediaSource(Context context, Uri uri, Map<String, String> heads) {
-        return new ExtractorMediaSource.Factory(buildHttpDataSourceFactory(context, BANDWIDTH_METER, heads))
-                .createMediaSource(uri);
-    }
-
-    private static DataSource.Factory buildHttpDataSourceFactory(Context context, DefaultBandwidthMeter bandwidthMeter, Map<String, String> heads) {
+    private static DataSource.Factory buildHttpDataSourceFactory(Context context, TransferListener bandwidthMeter,
+                                                                 Map<String, String> heads, TransferListener transferListener) {
         DefaultHttpDataSourceFactory defaultHttpDataSourceFactory = new DefaultHttpDataSourceFactory(Util.getUserAgent(context, "ExoPlayer"), bandwidthMeter,
                 DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS, DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, true);
         if (heads != null) {
             defaultHttpDataSourceFactory.getDefaultRequestProperties().set(heads);
         }
-        return new DefaultDataSourceFactory(context, null, defaultHttpDataSourceFactory);
+        ExoMediaCache mediaCache = ExoMediaCache.get();
+        DataSource.Factory baseDataSourceFactory = mediaCache != null
+                ? mediaCache.buildDataSourceFactory(defaultHttpDataSourceFactory) : defaultHttpDataSourceFactory;
+        return new DefaultDataSourceFactory(context, transferListener, baseDataSourceFactory);
+    }
+
+    @Override
+    public long getBytesLoaded() {
+        return mBytesCounter.get();
     }
 
     private boolean isPlayerRunning() {
@@ -542,12 +779,13 @@ public class ExoMediaPlayer implements ExMediaPlayer {
 
         @Override
         public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
-
+            if (isPlayerRunning()) notifyOnInfo(MEDIA_INFO_TRACKS_CHANGED, 0);
         }
 
         @Override
         public void onLoadingChanged(boolean isLoading) {
-
+            // 停止加载时节流可能吞掉了最后一次进度
+            if (!isLoading) dispatchBufferingUpdate();
         }
 
         @Override
@@ -569,9 +807,7 @@ public class ExoMediaPlayer implements ExMediaPlayer {
 
         @Override
         public void onPlayerError(ExoPlaybackException error) {
-            if (mExoPlayer != null) { // cz no error state
-                setBufferRepeaterStarted(false);
-            }
+            cancelBufferingUpdate();
             if (error != null && isPlayerRunning()) {
                 Throwable cause = error.getCause();
                 if (cause != null) {
@@ -626,7 +862,13 @@ public class ExoMediaPlayer implements ExMediaPlayer {
 
         @Override
         public void onPositionDiscontinuity(int reason) {
-
+            // 循环播放时也是PERIOD_TRANSITION, 只有切到第1个才是下一个视频
+            if (reason != Player.DISCONTINUITY_REASON_PERIOD_TRANSITION || mMediaSource == null
+                    || mExoPlayer == null || mExoPlayer.getCurrentWindowIndex() == 0) {
+                return;
+            }
+            mMediaSource.removeMediaSource(0);
+            notifyOnInfo(MEDIA_INFO_STARTED_AS_NEXT, 0);
         }
 
         @Override
@@ -642,6 +884,40 @@ public class ExoMediaPlayer implements ExMediaPlayer {
         }
     };
 
+    private class BytesCounter implements TransferListener {
+
+        private final AtomicLong mBytes = new AtomicLong();
+
+        long get() {
+            return mBytes.get();
+        }
+
+        void reset() {
+            mBytes.set(0);
+        }
+
+        @Override
+        public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+
+        }
+
+        @Override
+        public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+
+        }
+
+        @Override
+        public void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+            if (isNetwork) mBytes.addAndGet(bytesTransferred);
+            requestBufferingUpdate();
+        }
+
+        @Override
+        public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+
+        }
+    }
+
     // StateStore
     private static class StateStore {
         private static final int FLAG_PLAY_WHEN_READY = 0xF0000000;
@@ -726,6 +1002,10 @@ public class ExoMediaPlayer implements ExMediaPlayer {
         if (mOnPreparedListener != null) {
             mOnPreparedListener.onPrepared(this);
         }
+        // 不能在prepare时就设置playWhenReady, 准备完成是靠状态历史判断的
+        if (Boolean.TRUE.equals(mOptions.getStartOnPrepared()) && mPlayerStatus == PLAYER_STATUS_PREPARED) {
+            start();
+        }
     }
 
     private void notifyOnSeekComplete() {
@@ -735,14 +1015,33 @@ public class ExoMediaPlayer implements ExMediaPlayer {
         }
     }
 
-    private void setBufferRepeaterStarted(boolean start) {
-        if (start && mOnBufferingUpdateListener != null) {
-            mBufferUpdateRepeater.start();
-        } else {
-            mBufferUpdateRepeater.stop();
+    /**
+     * Called from the loading thread for every transfer, posts at most one update per interval.
+     */
+    private void requestBufferingUpdate() {
+        if (mOnBufferingUpdateListener == null) return;
+        if (SystemClock.elapsedRealtime() - mLastBufferingUpdateAt < mBufferingUpdateIntervalMs) return;
+        if (mBufferingUpdatePending.compareAndSet(false, true)) {
+            mHandler.post(mBufferingUpdateRunnable);
         }
     }
 
+    private void dispatchBufferingUpdate() {
+        if (mExoPlayer == null || !isPlayerRunning() || mOnBufferingUpdateListener == null) return;
+        mLastBufferingUpdateAt = SystemClock.elapsedRealtime();
+        int percent = getBufferedPercentage();
+        if (percent != mLastBufferedPercent) {
+            mLastBufferedPercent = percent;
+            notifyOnBufferingUpdate(percent);
+        }
+    }
+
+    private void cancelBufferingUpdate() {
+        mHandler.removeCallbacks(mBufferingUpdateRunnable);
+        mBufferingUpdatePending.set(false);
+        mLastBufferedPercent = -1;
+    }
+
     private void notifyOnVideoSizeChanged(int width, int height,
                                           int sarNum, int sarDen) {
         Log.v(TAG, "notifyOnVideoSizeChanged [" + width + "," + height + "]");
@@ -766,10 +1065,8 @@ public class ExoMediaPlayer implements ExMediaPlayer {
             mStateStore.setMostRecentState(playWhenReady, playbackState);
 
 //            Makes sure the buffering notifications are sent
-            if (newState == Player.STATE_READY) {
-                setBufferRepeaterStarted(true);
-            } else if (newState == Player.STATE_IDLE || newState == Player.STATE_ENDED) {
-                setBufferRepeaterStarted(false);
+            if (playbackState == Player.STATE_READY) {
+                dispatchBufferingUpdate();
             }
 
             if (newState == mStateStore.getState(true, Player.STATE_ENDED)) {
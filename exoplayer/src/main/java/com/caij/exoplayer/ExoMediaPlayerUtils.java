@@ -76,6 +76,33 @@ public class ExoMediaPlayerUtils {
                 activeNetwork.isConnected();
     }
 
+    /**
+     * @return "wifi", "cellular", "other", "none", or "unknown" without ACCESS_NETWORK_STATE.
+     */
+    public static String getNetworkType(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork;
+        try {
+            activeNetwork = cm.getActiveNetworkInfo();
+        } catch (SecurityException e) {
+            // app合并manifest时去掉了权限
+            return "unknown";
+        }
+        if (activeNetwork == null || !activeNetwork.isConnected()) {
+            return "none";
+        }
+        switch (activeNetwork.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_ETHERNET:
+                return "wifi";
+            case ConnectivityManager.TYPE_MOBILE:
+                return "cellular";
+            default:
+                return "other";
+        }
+    }
+
     public static String getLogcatContent() {
         return getLogcatContent(0, null, 10);
     }
@@ -0,0 +1,121 @@
+package com.caij.exoplayer;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Util;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Works out which media source a url needs from its path, its response {@code Content-Type} and the
+ * first bytes of the response.
+ */
+public class MediaTypeSniffer {
+
+    /**
+     * Returned when nothing conclusive was found.
+     */
+    public static final int TYPE_UNKNOWN = -1;
+
+    /**
+     * How many leading bytes {@link #sniff(String, byte[], int)} wants to see.
+     */
+    public static final int SNIFF_LENGTH = 512;
+
+    private static final int TS_PACKET_SIZE = 188;
+    private static final byte TS_SYNC_BYTE = 0x47;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * Infers the type from the url alone.
+     */
+    public static int inferFromUri(Uri uri) {
+        @C.ContentType int type = Util.inferContentType(uri);
+        if (type != C.TYPE_OTHER) return type;
+        String path = uri.getPath();
+        if (!TextUtils.isEmpty(path)) {
+            String lowerPath = path.toLowerCase(Locale.US);
+            if (lowerPath.endsWith(".mp4") || lowerPath.endsWith(".flv") || lowerPath.endsWith(".ts")) {
+                return C.TYPE_OTHER;
+            } else if (lowerPath.endsWith(".m3u8")) {
+                return C.TYPE_HLS;
+            }
+        }
+        return TYPE_UNKNOWN;
+    }
+
+    /**
+     * Infers the type from a response. The {@code Content-Type} header wins when it is specific,
+     * otherwise the leading bytes are checked.
+     *
+     * @param contentType the response {@code Content-Type}, may be null.
+     * @param head        the first bytes of the response body, may be null.
+     * @param length      number of valid bytes in {@code head}.
+     */
+    public static int sniff(String contentType, byte[] head, int length) {
+        int type = inferFromMimeType(contentType);
+        if (type != TYPE_UNKNOWN) return type;
+        return head == null ? TYPE_UNKNOWN : inferFromBytes(head, length);
+    }
+
+    private static int inferFromMimeType(String contentType) {
+        if (contentType == null || contentType.isEmpty()) return TYPE_UNKNOWN;
+        String mimeType = contentType.toLowerCase(Locale.US);
+        int paramsIndex = mimeType.indexOf(';');
+        if (paramsIndex >= 0) mimeType = mimeType.substring(0, paramsIndex);
+        mimeType = mimeType.trim();
+
+        if (mimeType.equals("application/vnd.apple.mpegurl") || mimeType.equals("application/x-mpegurl")
+                || mimeType.equals("audio/mpegurl") || mimeType.equals("audio/x-mpegurl")) {
+            return C.TYPE_HLS;
+        } else if (mimeType.equals("application/dash+xml")) {
+            return C.TYPE_DASH;
+        } else if (mimeType.equals("application/vnd.ms-sstr+xml")) {
+            return C.TYPE_SS;
+        } else if (mimeType.startsWith("video/") || mimeType.startsWith("audio/")) {
+            return C.TYPE_OTHER;
+        }
+        // application/octet-stream, text/plain 之类的需要看内容
+        return TYPE_UNKNOWN;
+    }
+
+    private static int inferFromBytes(byte[] head, int length) {
+        int offset = 0;
+        // UTF-8 BOM
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            offset = 3;
+        }
+        if (startsWith(head, offset, length, "#EXTM3U")) {
+            return C.TYPE_HLS;
+        }
+        if (length >= 8 && startsWith(head, 4, length, "ftyp")) {
+            return C.TYPE_OTHER;
+        }
+        if (startsWith(head, 0, length, "FLV")) {
+            return C.TYPE_OTHER;
+        }
+        if (length > 0 && head[0] == TS_SYNC_BYTE && (length <= TS_PACKET_SIZE || head[TS_PACKET_SIZE] == TS_SYNC_BYTE)) {
+            return C.TYPE_OTHER;
+        }
+        if (startsWith(head, offset, length, "<")) {
+            String text = new String(head, offset, length - offset, ASCII);
+            if (text.contains("<MPD")) {
+                return C.TYPE_DASH;
+            } else if (text.contains("<SmoothStreamingMedia")) {
+                return C.TYPE_SS;
+            }
+        }
+        return TYPE_UNKNOWN;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int length, String prefix) {
+        if (length - offset < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[offset + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,266 @@
+package com.caij.exoplayer;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.caij.video.Clock;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolved (post-redirect) url cache used by {@link ExoMediaPlayer} before it builds a media source.
+ * Each entry also remembers the media type detected for the url, see {@link MediaTypeSniffer}.
+ *
+ * <p>Entries are evicted least recently used first once {@code maxSize} is reached and expire after
+ * {@code ttlMs} so stale CDN redirects are resolved again. When a persist file is given, entries are
+ * loaded from it in the background right after construction and written back in the background
+ * after every change, so a cold start can skip the redirect probe. Lookups made before the load
+ * finished simply miss.
+ */
+public class RedirectCache {
+
+    private static final String TAG = "RedirectCache";
+
+    public static final int DEFAULT_MAX_SIZE = 200;
+    public static final long DEFAULT_TTL_MS = 30 * 60 * 1000L;
+
+    private static volatile RedirectCache sDefault = new RedirectCache(DEFAULT_MAX_SIZE, DEFAULT_TTL_MS, null);
+
+    private final int mMaxSize;
+    private final long mTtlMs;
+    private final AtomicFile mPersistFile;
+    private final Clock mClock;
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    private ThreadPoolExecutor mSaveExecutor;
+    private boolean mSavePending;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mExpiredCount;
+    private long mEvictionCount;
+
+    public RedirectCache(int maxSize, long ttlMs, File persistFile) {
+        this(maxSize, ttlMs, persistFile, Clock.SYSTEM);
+    }
+
+    RedirectCache(int maxSize, long ttlMs, File persistFile, Clock clock) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        mMaxSize = maxSize;
+        mTtlMs = ttlMs;
+        // 过期时间会持久化, 只能用墙上时间
+        mClock = clock;
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > mMaxSize) {
+                    mEvictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        mPersistFile = persistFile == null ? null : new AtomicFile(persistFile);
+        if (mPersistFile != null) {
+            // 构造可能在主线程, 读文件放到保存用的线程里, 也保证了先读后写
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    load();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the cache every {@link ExoMediaPlayer} uses.
+     */
+    public static RedirectCache getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Replaces the cache every {@link ExoMediaPlayer} uses, e.g. with a persisted one.
+     */
+    public static void setDefault(RedirectCache redirectCache) {
+        if (redirectCache == null) throw new IllegalArgumentException("redirectCache == null");
+        sDefault = redirectCache;
+    }
+
+    /**
+     * @return the cached entry, or null if unknown or expired.
+     */
+    public synchronized Entry get(String url) {
+        Entry entry = mEntries.get(url);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        if (entry.isExpired(mClock.currentTimeMillis())) {
+            mEntries.remove(url);
+            mExpiredCount++;
+            mMissCount++;
+            scheduleSave();
+            return null;
+        }
+        mHitCount++;
+        return entry;
+    }
+
+    /**
+     * @param contentType the detected media type, or {@link MediaTypeSniffer#TYPE_UNKNOWN}.
+     */
+    public synchronized void put(String url, String resolvedUrl, int contentType) {
+        if (url == null || resolvedUrl == null) return;
+        mEntries.put(url, new Entry(resolvedUrl, contentType, mClock.currentTimeMillis() + mTtlMs));
+        scheduleSave();
+    }
+
+    public synchronized void remove(String url) {
+        if (mEntries.remove(url) != null) scheduleSave();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        scheduleSave();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getExpiredCount() {
+        return mExpiredCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (mSaveExecutor == null) {
+            mSaveExecutor = new ThreadPoolExecutor(0, 1,
+                    60 * 1000L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+        }
+        return mSaveExecutor;
+    }
+
+    private void scheduleSave() {
+        if (mPersistFile == null || mSavePending) return;
+        mSavePending = true;
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    private void load() {
+        long now = mClock.currentTimeMillis();
+        LinkedHashMap<String, Entry> loaded = new LinkedHashMap<>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(mPersistFile.openRead(), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length < 3) continue;
+                long expiresAt = Long.parseLong(parts[0]);
+                int contentType = parts.length > 3 ? Integer.parseInt(parts[3]) : MediaTypeSniffer.TYPE_UNKNOWN;
+                if (expiresAt > now) {
+                    loaded.put(parts[1], new Entry(parts[2], contentType, expiresAt));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.d(TAG, "load redirect cache failed " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (loaded.isEmpty()) return;
+        synchronized (this) {
+            // 文件里的比加载期间新put的旧, 放在LRU的前面, 超出上限时先淘汰
+            LinkedHashMap<String, Entry> recent = new LinkedHashMap<>(mEntries);
+            mEntries.clear();
+            for (Map.Entry<String, Entry> entry : loaded.entrySet()) {
+                if (!recent.containsKey(entry.getKey())) mEntries.put(entry.getKey(), entry.getValue());
+            }
+            mEntries.putAll(recent);
+        }
+    }
+
+    private void save() {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            mSavePending = false;
+            long now = mClock.currentTimeMillis();
+            Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (!entry.getValue().isExpired(now)) {
+                    Entry value = entry.getValue();
+                    lines.add(value.expiresAt + "\t" + entry.getKey() + "\t" + value.resolvedUrl + "\t" + value.contentType);
+                }
+            }
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = mPersistFile.startWrite();
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.flush();
+            mPersistFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.d(TAG, "save redirect cache failed " + e.getMessage());
+            if (out != null) mPersistFile.failWrite(out);
+        }
+    }
+
+    public static class Entry {
+        public final String resolvedUrl;
+        public final int contentType;
+        final long expiresAt;
+
+        Entry(String resolvedUrl, int contentType, long expiresAt) {
+            this.resolvedUrl = resolvedUrl;
+            this.contentType = contentType;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
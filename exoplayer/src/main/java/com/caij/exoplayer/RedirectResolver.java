@@ -0,0 +1,294 @@
+package com.caij.exoplayer;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide service that learns the final url of a media url by following its redirects, and
+ * detects its media type on the way.
+ *
+ * <p>Probes run on a small shared executor with strict timeouts. Each hop is a ranged GET for the
+ * first {@link MediaTypeSniffer#SNIFF_LENGTH} bytes instead of a HEAD request: many CDNs answer
+ * HEAD with 403/405 or without the redirect, and the ranged GET gives the final url, the
+ * {@code Content-Type} and the leading bytes in a single round trip. Concurrent requests for the
+ * same url and the same headers share one probe, and a probe is aborted once every request waiting
+ * on it has been cancelled. Successful results are written to {@link RedirectCache#getDefault()}.
+ */
+public class RedirectResolver {
+
+    private static final String TAG = "RedirectResolver";
+
+    private static final int MAX_THREADS = 2;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private static final RedirectResolver INSTANCE = new RedirectResolver();
+
+    public interface Callback {
+        /**
+         * @param resolvedUrl the final url, or null if it could not be resolved.
+         * @param contentType the detected media type, or {@link MediaTypeSniffer#TYPE_UNKNOWN}.
+         */
+        void onResolved(String url, String resolvedUrl, int contentType);
+    }
+
+    public static class HostStats {
+        public final String host;
+        public final int count;
+        public final int failureCount;
+        public final long totalLatencyMs;
+        public final long maxLatencyMs;
+
+        HostStats(String host, int count, int failureCount, long totalLatencyMs, long maxLatencyMs) {
+            this.host = host;
+            this.count = count;
+            this.failureCount = failureCount;
+            this.totalLatencyMs = totalLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+        }
+
+        public long getAverageLatencyMs() {
+            return count == 0 ? 0 : totalLatencyMs / count;
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Map<String, Probe> mProbes = new HashMap<>();
+    private final Map<String, HostStats> mHostStats = new HashMap<>();
+
+    private RedirectResolver() {
+        mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                60 * 1000L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static RedirectResolver getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Resolves {@code url} and reports the result on {@code handler}'s thread.
+     *
+     * @return a request that can be cancelled; a cancelled request never calls back.
+     */
+    public Request resolve(String url, Map<String, String> headers, Handler handler, Callback callback) {
+        // 请求头不同(如鉴权)的不能共用一次探测
+        String key = probeKey(url, headers);
+        Request request = new Request(key, url, handler, callback);
+        synchronized (this) {
+            Probe probe = mProbes.get(key);
+            if (probe == null) {
+                probe = new Probe(key, url, headers);
+                mProbes.put(key, probe);
+                probe.requests.add(request);
+                probe.future = mExecutor.submit(probe);
+            } else {
+                probe.requests.add(request);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * @return resolution latency per host since process start.
+     */
+    public synchronized List<HostStats> getHostStats() {
+        return new ArrayList<>(mHostStats.values());
+    }
+
+    private static String probeKey(String url, Map<String, String> headers) {
+        if (headers == null || headers.isEmpty()) return url;
+        StringBuilder builder = new StringBuilder(url);
+        for (Map.Entry<String, String> header : new TreeMap<>(headers).entrySet()) {
+            builder.append('\n').append(header.getKey()).append(':').append(header.getValue());
+        }
+        return builder.toString();
+    }
+
+    private synchronized void cancel(Request request) {
+        Probe probe = mProbes.get(request.key);
+        if (probe == null || !probe.requests.remove(request)) return;
+        if (probe.requests.isEmpty()) {
+            mProbes.remove(request.key);
+            probe.abort();
+        }
+    }
+
+    private void finish(Probe probe, String resolvedUrl, int contentType, long latencyMs) {
+        List<Request> requests;
+        synchronized (this) {
+            if (mProbes.get(probe.key) == probe) mProbes.remove(probe.key);
+            requests = new ArrayList<>(probe.requests);
+            probe.requests.clear();
+            recordLatency(probe.url, resolvedUrl != null, latencyMs);
+        }
+        if (resolvedUrl != null) {
+            RedirectCache.getDefault().put(probe.url, resolvedUrl, contentType);
+        }
+        for (Request request : requests) {
+            request.deliver(resolvedUrl, contentType);
+        }
+    }
+
+    private void recordLatency(String url, boolean success, long latencyMs) {
+        String host = Uri.parse(url).getHost();
+        if (host == null) host = "";
+        HostStats old = mHostStats.get(host);
+        HostStats stats = old == null
+                ? new HostStats(host, 1, success ? 0 : 1, latencyMs, latencyMs)
+                : new HostStats(host, old.count + 1, old.failureCount + (success ? 0 : 1),
+                old.totalLatencyMs + latencyMs, Math.max(old.maxLatencyMs, latencyMs));
+        mHostStats.put(host, stats);
+    }
+
+    public class Request {
+        private final String key;
+        private final String url;
+        private final Handler handler;
+        private final Callback callback;
+        private volatile boolean cancelled;
+
+        Request(String key, String url, Handler handler, Callback callback) {
+            this.key = key;
+            this.url = url;
+            this.handler = handler;
+            this.callback = callback;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            RedirectResolver.this.cancel(this);
+        }
+
+        void deliver(final String resolvedUrl, final int contentType) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) callback.onResolved(url, resolvedUrl, contentType);
+                }
+            });
+        }
+    }
+
+    private class Probe implements Runnable {
+        final String key;
+        final String url;
+        final Map<String, String> headers;
+        final List<Request> requests = new ArrayList<>();
+        Future<?> future;
+        private volatile HttpURLConnection connection;
+        private volatile boolean aborted;
+        private int contentType = MediaTypeSniffer.TYPE_UNKNOWN;
+
+        Probe(String key, String url, Map<String, String> headers) {
+            this.key = key;
+            this.url = url;
+            this.headers = headers;
+        }
+
+        void abort() {
+            aborted = true;
+            if (future != null) future.cancel(true);
+            HttpURLConnection conn = connection;
+            if (conn != null) conn.disconnect();
+        }
+
+        @Override
+        public void run() {
+            long start = SystemClock.elapsedRealtime();
+            String resolvedUrl = null;
+            try {
+                resolvedUrl = followRedirects();
+            } catch (Exception e) {
+                Log.d(TAG, "resolve " + url + " failed " + e.getMessage());
+            }
+            if (!aborted) {
+                finish(this, resolvedUrl, contentType, SystemClock.elapsedRealtime() - start);
+            }
+        }
+
+        private String followRedirects() throws IOException {
+            String current = url;
+            for (int i = 0; i <= MAX_REDIRECTS && !aborted; i++) {
+                HttpURLConnection conn = open(current);
+                try {
+                    int code = conn.getResponseCode();
+                    if (code >= 300 && code < 400) {
+                        String location = conn.getHeaderField("Location");
+                        if (TextUtils.isEmpty(location)) return current;
+                        current = new URL(new URL(current), location).toString();
+                    } else if (code >= 200 && code < 300) {
+                        sniff(conn);
+                        return current;
+                    } else {
+                        return null;
+                    }
+                } finally {
+                    conn.disconnect();
+                    connection = null;
+                }
+            }
+            return null;
+        }
+
+        private void sniff(HttpURLConnection conn) {
+            byte[] head = new byte[MediaTypeSniffer.SNIFF_LENGTH];
+            int length = 0;
+            InputStream in = null;
+            try {
+                in = conn.getInputStream();
+                int read;
+                while (length < head.length && (read = in.read(head, length, head.length - length)) != -1) {
+                    length += read;
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "sniff " + url + " failed " + e.getMessage());
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            contentType = MediaTypeSniffer.sniff(conn.getContentType(), head, length);
+        }
+
+        private HttpURLConnection open(String url) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setInstanceFollowRedirects(false);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+            conn.setRequestProperty("Range", "bytes=0-" + (MediaTypeSniffer.SNIFF_LENGTH - 1));
+            // 不要压缩，否则Content-Type和首字节都不可信
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            connection = conn;
+            if (aborted) conn.disconnect();
+            return conn;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.caij.exoplayer;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The one bandwidth meter every {@link ExoMediaPlayer} reports transfers to and selects tracks
+ * with.
+ *
+ * <p>Each network type (wifi / cellular) has its own {@link DefaultBandwidthMeter}, seeded with the
+ * estimate persisted for that type and saving back under the same type, so a wifi estimate never
+ * becomes the cellular one. When the network type changes, the meter of the new type takes over;
+ * transfers that already started keep reporting to the meter they started on.
+ */
+public class SharedBandwidthMeter implements BandwidthMeter, TransferListener {
+
+    private static final String PREFS_NAME = "exo_bandwidth";
+    private static final String KEY_PREFIX = "bitrate_";
+    private static final long MIN_SAVE_INTERVAL_MS = 5000;
+    private static final String NETWORK_NONE = "none";
+
+    private static SharedBandwidthMeter sInstance;
+
+    private final Context mAppContext;
+    private final SharedPreferences mPreferences;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<String, Meter> mMeters = new HashMap<>();
+    private final Map<DataSource, Meter> mTransfers = new IdentityHashMap<>();
+    private final List<ListenerHolder> mEventListeners = new ArrayList<>();
+    private volatile Meter mCurrent;
+
+    public static synchronized SharedBandwidthMeter get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SharedBandwidthMeter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SharedBandwidthMeter(Context appContext) {
+        mAppContext = appContext;
+        mPreferences = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mCurrent = obtainMeter(ExoMediaPlayerUtils.getNetworkType(appContext));
+        appContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onNetworkChanged(ExoMediaPlayerUtils.getNetworkType(mAppContext));
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * @return the persisted estimate for the current network type in bits per second, or 0.
+     */
+    public static long getPersistedEstimate(Context context) {
+        SharedBandwidthMeter meter = get(context);
+        return meter.mPreferences.getLong(meter.mCurrent.key, 0);
+    }
+
+    private synchronized void onNetworkChanged(String networkType) {
+        // 断网时没有传输, 保留之前的
+        if (NETWORK_NONE.equals(networkType)) return;
+        Meter current = mCurrent;
+        if (current.networkType.equals(networkType)) return;
+        current.save(true);
+        mCurrent = obtainMeter(networkType);
+    }
+
+    private synchronized Meter obtainMeter(String networkType) {
+        Meter meter = mMeters.get(networkType);
+        if (meter == null) {
+            meter = new Meter(networkType);
+            mMeters.put(networkType, meter);
+            for (ListenerHolder holder : mEventListeners) {
+                meter.bandwidthMeter.addEventListener(holder.handler, holder.listener);
+            }
+        }
+        return meter;
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        return mCurrent.bandwidthMeter.getBitrateEstimate();
+    }
+
+    @Override
+    public TransferListener getTransferListener() {
+        return this;
+    }
+
+    @Override
+    public synchronized void addEventListener(Handler eventHandler, EventListener eventListener) {
+        mEventListeners.add(new ListenerHolder(eventHandler, eventListener));
+        for (Meter meter : mMeters.values()) {
+            meter.bandwidthMeter.addEventListener(eventHandler, eventListener);
+        }
+    }
+
+    @Override
+    public synchronized void removeEventListener(EventListener eventListener) {
+        for (int i = mEventListeners.size() - 1; i >= 0; i--) {
+            if (mEventListeners.get(i).listener == eventListener) mEventListeners.remove(i);
+        }
+        for (Meter meter : mMeters.values()) {
+            meter.bandwidthMeter.removeEventListener(eventListener);
+        }
+    }
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        mCurrent.bandwidthMeter.onTransferInitializing(source, dataSpec, isNetwork);
+    }
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        Meter meter = mCurrent;
+        synchronized (mTransfers) {
+            mTransfers.put(source, meter);
+        }
+        meter.bandwidthMeter.onTransferStart(source, dataSpec, isNetwork);
+    }
+
+    @Override
+    public void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+        Meter meter;
+        synchronized (mTransfers) {
+            meter = mTransfers.get(source);
+        }
+        if (meter != null) meter.bandwidthMeter.onBytesTransferred(source, dataSpec, isNetwork, bytesTransferred);
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        Meter meter;
+        synchronized (mTransfers) {
+            meter = mTransfers.remove(source);
+        }
+        // 开始和结束要报给同一个meter, 否则它的计数会乱
+        if (meter != null) meter.bandwidthMeter.onTransferEnd(source, dataSpec, isNetwork);
+    }
+
+    private class Meter {
+        final String networkType;
+        final String key;
+        final DefaultBandwidthMeter bandwidthMeter;
+        private boolean mSampled;
+        private long mLastSaveTime;
+
+        Meter(String networkType) {
+            this.networkType = networkType;
+            this.key = KEY_PREFIX + networkType;
+            DefaultBandwidthMeter.Builder builder = new DefaultBandwidthMeter.Builder();
+            long initialEstimate = mPreferences.getLong(key, 0);
+            if (initialEstimate > 0) {
+                builder.setInitialBitrateEstimate(initialEstimate);
+            }
+            bandwidthMeter = builder.build();
+            bandwidthMeter.addEventListener(mMainHandler, new EventListener() {
+                @Override
+                public void onBandwidthSample(int elapsedMs, long bytes, long bitrate) {
+                    mSampled = true;
+                    save(false);
+                }
+            });
+        }
+
+        synchronized void save(boolean force) {
+            long now = SystemClock.elapsedRealtime();
+            // 没测过的只是默认值, 不要存
+            if (!mSampled || (!force && now - mLastSaveTime < MIN_SAVE_INTERVAL_MS)) return;
+            mLastSaveTime = now;
+            long estimate = bandwidthMeter.getBitrateEstimate();
+            if (estimate > 0) {
+                mPreferences.edit().putLong(key, estimate).apply();
+            }
+        }
+    }
+
+    private static class ListenerHolder {
+        final Handler handler;
+        final EventListener listener;
+
+        ListenerHolder(Handler handler, EventListener listener) {
+            this.handler = handler;
+            this.listener = listener;
+        }
+    }
+}
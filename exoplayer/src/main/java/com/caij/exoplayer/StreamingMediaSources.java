@@ -0,0 +1,60 @@
+package com.caij.exoplayer;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
+import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+
+/**
+ * DASH and SmoothStreaming sources. The exoplayer-dash and exoplayer-smoothstreaming modules are
+ * compile-only, so apps that play these formats have to add them; the builders check that the
+ * module is present before touching any of its classes and return null when it is missing.
+ */
+class StreamingMediaSources {
+
+    private static final String TAG = "StreamingMediaSources";
+
+    private static final String DASH_CLASS = "com.google.android.exoplayer2.source.dash.DashMediaSource";
+    private static final String SS_CLASS = "com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource";
+
+    static MediaSource buildDashMediaSource(Uri uri, DataSource.Factory dataSourceFactory) {
+        if (!isAvailable(DASH_CLASS, "exoplayer-dash")) return null;
+        return Dash.build(uri, dataSourceFactory);
+    }
+
+    static MediaSource buildSsMediaSource(Uri uri, DataSource.Factory dataSourceFactory) {
+        if (!isAvailable(SS_CLASS, "exoplayer-smoothstreaming")) return null;
+        return Ss.build(uri, dataSourceFactory);
+    }
+
+    private static boolean isAvailable(String className, String module) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException e) {
+            Log.w(TAG, "不支持这种类型，请添加依赖 com.google.android.exoplayer:" + module);
+            return false;
+        }
+    }
+
+    // 分开放, 模块不存在时不会加载到这些类
+
+    private static class Dash {
+        static MediaSource build(Uri uri, DataSource.Factory dataSourceFactory) {
+            return new DashMediaSource.Factory(new DefaultDashChunkSource.Factory(dataSourceFactory), dataSourceFactory)
+                    .createMediaSource(uri);
+        }
+    }
+
+    private static class Ss {
+        static MediaSource build(Uri uri, DataSource.Factory dataSourceFactory) {
+            return new SsMediaSource.Factory(new DefaultSsChunkSource.Factory(dataSourceFactory), dataSourceFactory)
+                    .createMediaSource(uri);
+        }
+    }
+}
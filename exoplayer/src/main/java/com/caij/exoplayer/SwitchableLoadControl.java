@@ -0,0 +1,78 @@
+package com.caij.exoplayer;
+
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+
+/**
+ * {@link LoadControl} whose thresholds can be replaced between playbacks. ExoPlayer only takes the
+ * load control when the player is built, so {@link ExoMediaPlayer} hands this one over and swaps the
+ * delegate while the player is idle. Every delegate must share the same allocator.
+ */
+class SwitchableLoadControl implements LoadControl {
+
+    private final Allocator mAllocator;
+    private volatile LoadControl mDelegate;
+
+    SwitchableLoadControl(Allocator allocator, LoadControl delegate) {
+        mAllocator = allocator;
+        mDelegate = delegate;
+    }
+
+    /**
+     * Only call while the player is idle, the new delegate is used from the next prepare on.
+     */
+    void setDelegate(LoadControl delegate) {
+        if (delegate.getAllocator() != mAllocator) {
+            throw new IllegalArgumentException("allocator 必须相同");
+        }
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void onPrepared() {
+        mDelegate.onPrepared();
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+        mDelegate.onTracksSelected(renderers, trackGroups, trackSelections);
+    }
+
+    @Override
+    public void onStopped() {
+        mDelegate.onStopped();
+    }
+
+    @Override
+    public void onReleased() {
+        mDelegate.onReleased();
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return mAllocator;
+    }
+
+    @Override
+    public long getBackBufferDurationUs() {
+        return mDelegate.getBackBufferDurationUs();
+    }
+
+    @Override
+    public boolean retainBackBufferFromKeyframe() {
+        return mDelegate.retainBackBufferFromKeyframe();
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
+        return mDelegate.shouldContinueLoading(bufferedDurationUs, playbackSpeed);
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, float playbackSpeed, boolean rebuffering) {
+        return mDelegate.shouldStartPlayback(bufferedDurationUs, playbackSpeed, rebuffering);
+    }
+}
@@ -0,0 +1,101 @@
+package com.caij.exoplayer;
+
+import com.google.android.exoplayer2.C;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class MediaTypeSnifferTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static int sniff(String contentType, byte[] head) {
+        return MediaTypeSniffer.sniff(contentType, head, head == null ? 0 : head.length);
+    }
+
+    @Test
+    public void sniff_contentType() {
+        assertEquals(C.TYPE_HLS, sniff("application/vnd.apple.mpegurl", null));
+        assertEquals(C.TYPE_HLS, sniff("Application/X-MpegURL; charset=UTF-8", null));
+        assertEquals(C.TYPE_HLS, sniff("audio/mpegurl", null));
+        assertEquals(C.TYPE_DASH, sniff("application/dash+xml", null));
+        assertEquals(C.TYPE_SS, sniff("application/vnd.ms-sstr+xml", null));
+        assertEquals(C.TYPE_OTHER, sniff("video/mp4", null));
+        assertEquals(C.TYPE_OTHER, sniff("audio/aac", null));
+    }
+
+    @Test
+    public void sniff_specificContentTypeWinsOverBytes() {
+        assertEquals(C.TYPE_OTHER, sniff("video/mp2t", "#EXTM3U\n".getBytes(ASCII)));
+    }
+
+    @Test
+    public void sniff_genericContentType_checksBytes() {
+        assertEquals(C.TYPE_HLS, sniff("application/octet-stream", "#EXTM3U\n#EXT-X-VERSION:3\n".getBytes(ASCII)));
+        assertEquals(C.TYPE_HLS, sniff("text/plain", "#EXTM3U".getBytes(ASCII)));
+        assertEquals(C.TYPE_HLS, sniff("", "#EXTM3U".getBytes(ASCII)));
+    }
+
+    @Test
+    public void sniff_hlsWithBom() {
+        byte[] text = "#EXTM3U\n".getBytes(ASCII);
+        byte[] head = new byte[text.length + 3];
+        head[0] = (byte) 0xEF;
+        head[1] = (byte) 0xBB;
+        head[2] = (byte) 0xBF;
+        System.arraycopy(text, 0, head, 3, text.length);
+        assertEquals(C.TYPE_HLS, sniff(null, head));
+    }
+
+    @Test
+    public void sniff_mp4() {
+        byte[] head = {0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'};
+        assertEquals(C.TYPE_OTHER, sniff(null, head));
+    }
+
+    @Test
+    public void sniff_flv() {
+        byte[] head = {'F', 'L', 'V', 1, 5, 0, 0, 0, 9};
+        assertEquals(C.TYPE_OTHER, sniff(null, head));
+    }
+
+    @Test
+    public void sniff_ts() {
+        byte[] head = new byte[188 * 2];
+        head[0] = 0x47;
+        head[188] = 0x47;
+        assertEquals(C.TYPE_OTHER, sniff(null, head));
+
+        // 第二个包的同步字节不对
+        head[188] = 0;
+        assertEquals(MediaTypeSniffer.TYPE_UNKNOWN, sniff(null, head));
+    }
+
+    @Test
+    public void sniff_xmlManifests() {
+        assertEquals(C.TYPE_DASH, sniff(null,
+                "<?xml version=\"1.0\"?>\n<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\">".getBytes(ASCII)));
+        assertEquals(C.TYPE_SS, sniff(null,
+                "<?xml version=\"1.0\"?>\n<SmoothStreamingMedia MajorVersion=\"2\">".getBytes(ASCII)));
+        assertEquals(MediaTypeSniffer.TYPE_UNKNOWN, sniff(null, "<html><body>".getBytes(ASCII)));
+    }
+
+    @Test
+    public void sniff_onlyLooksAtValidBytes() {
+        byte[] head = new byte[MediaTypeSniffer.SNIFF_LENGTH];
+        byte[] text = "#EXTM3U".getBytes(ASCII);
+        System.arraycopy(text, 0, head, 0, text.length);
+        assertEquals(C.TYPE_HLS, MediaTypeSniffer.sniff(null, head, text.length));
+        assertEquals(MediaTypeSniffer.TYPE_UNKNOWN, MediaTypeSniffer.sniff(null, head, 3));
+    }
+
+    @Test
+    public void sniff_unknown() {
+        assertEquals(MediaTypeSniffer.TYPE_UNKNOWN, sniff(null, null));
+        assertEquals(MediaTypeSniffer.TYPE_UNKNOWN, sniff(null, new byte[0]));
+        assertEquals(MediaTypeSniffer.TYPE_UNKNOWN, sniff("application/octet-stream", new byte[]{1, 2, 3, 4}));
+    }
+}
@@ -0,0 +1,120 @@
+package com.caij.exoplayer;
+
+import com.caij.video.Clock;
+import com.google.android.exoplayer2.C;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RedirectCacheTest {
+
+    private static final long TTL_MS = 1000;
+
+    private long mNow;
+    private RedirectCache mCache;
+
+    private final Clock mClock = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mNow;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mNow = 10000;
+        mCache = new RedirectCache(3, TTL_MS, null, mClock);
+    }
+
+    @Test
+    public void get_returnsPutEntry() {
+        mCache.put("http://a/1", "http://cdn/1", C.TYPE_HLS);
+
+        RedirectCache.Entry entry = mCache.get("http://a/1");
+        assertNotNull(entry);
+        assertEquals("http://cdn/1", entry.resolvedUrl);
+        assertEquals(C.TYPE_HLS, entry.contentType);
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    @Test
+    public void get_unknownUrl_misses() {
+        assertNull(mCache.get("http://a/1"));
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void put_ignoresNull() {
+        mCache.put(null, "http://cdn/1", C.TYPE_OTHER);
+        mCache.put("http://a/1", null, C.TYPE_OTHER);
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void get_expiredEntry_isRemoved() {
+        mCache.put("http://a/1", "http://cdn/1", C.TYPE_OTHER);
+        mNow += TTL_MS - 1;
+        assertNotNull(mCache.get("http://a/1"));
+
+        mNow += 1;
+        assertNull(mCache.get("http://a/1"));
+        assertEquals(0, mCache.size());
+        assertEquals(1, mCache.getExpiredCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void put_refreshesTtl() {
+        mCache.put("http://a/1", "http://cdn/1", C.TYPE_OTHER);
+        mNow += TTL_MS / 2;
+        mCache.put("http://a/1", "http://cdn/2", C.TYPE_OTHER);
+        mNow += TTL_MS / 2;
+
+        RedirectCache.Entry entry = mCache.get("http://a/1");
+        assertNotNull(entry);
+        assertEquals("http://cdn/2", entry.resolvedUrl);
+    }
+
+    @Test
+    public void put_overMaxSize_evictsLeastRecentlyUsed() {
+        mCache.put("http://a/1", "http://cdn/1", C.TYPE_OTHER);
+        mCache.put("http://a/2", "http://cdn/2", C.TYPE_OTHER);
+        mCache.put("http://a/3", "http://cdn/3", C.TYPE_OTHER);
+        // 访问过的不会先被淘汰
+        mCache.get("http://a/1");
+        mCache.put("http://a/4", "http://cdn/4", C.TYPE_OTHER);
+
+        assertEquals(3, mCache.size());
+        assertEquals(1, mCache.getEvictionCount());
+        assertNull(mCache.get("http://a/2"));
+        assertNotNull(mCache.get("http://a/1"));
+        assertNotNull(mCache.get("http://a/3"));
+        assertNotNull(mCache.get("http://a/4"));
+    }
+
+    @Test
+    public void removeAndClear() {
+        mCache.put("http://a/1", "http://cdn/1", C.TYPE_OTHER);
+        mCache.put("http://a/2", "http://cdn/2", C.TYPE_OTHER);
+
+        mCache.remove("http://a/1");
+        assertNull(mCache.get("http://a/1"));
+        assertEquals(1, mCache.size());
+
+        mCache.clear();
+        assertEquals(0, mCache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNonPositiveMaxSize() {
+        new RedirectCache(0, TTL_MS, null, mClock);
+    }
+}
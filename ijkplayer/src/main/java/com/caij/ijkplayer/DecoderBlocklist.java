@@ -0,0 +1,97 @@
+package com.caij.ijkplayer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Device / codec / resolution combinations whose MediaCodec decoder is known to fail, persisted so
+ * later sessions go straight to software decoding. Entries are only added once software decoding
+ * of the same content has been seen to work, so a network failure never blocks a decoder.
+ *
+ * <p>The key is only known once a stream is prepared, so the key of recently played sources is also
+ * kept in memory; replaying one of them can skip the hardware decoder before preparing.
+ */
+public class DecoderBlocklist {
+
+    private static final String PREFS_NAME = "ijk_decoder_blocklist";
+    private static final int MAX_SOURCES = 100;
+
+    private static DecoderBlocklist sInstance;
+
+    private final SharedPreferences mPreferences;
+    private final Map<String, String> mSourceKeys = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_SOURCES;
+        }
+    };
+
+    private DecoderBlocklist(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized DecoderBlocklist get(Context context) {
+        if (sInstance == null) {
+            sInstance = new DecoderBlocklist(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the key of {@code codec} at {@code width}x{@code height} on this device, or null if the
+     * stream is not known yet.
+     */
+    public static String buildKey(String codec, int width, int height) {
+        if (codec == null || width <= 0 || height <= 0) return null;
+        // 固件升级可能修好解码器, 所以带上系统版本
+        return Build.MANUFACTURER + " " + Build.MODEL + " " + Build.VERSION.SDK_INT
+                + "|" + codec.toLowerCase(Locale.US) + "|" + resolutionClass(width, height);
+    }
+
+    private static String resolutionClass(int width, int height) {
+        int shortSide = Math.min(width, height);
+        if (shortSide <= 480) return "sd";
+        if (shortSide <= 720) return "720p";
+        if (shortSide <= 1080) return "1080p";
+        if (shortSide <= 1440) return "1440p";
+        return "2160p";
+    }
+
+    public boolean contains(String key) {
+        return key != null && mPreferences.getBoolean(key, false);
+    }
+
+    public void add(String key) {
+        if (key == null || contains(key)) return;
+        mPreferences.edit().putBoolean(key, true).apply();
+    }
+
+    /**
+     * Remembers that {@code source} was the stream with {@code key}.
+     */
+    public synchronized void rememberSource(String source, String key) {
+        if (source == null || key == null) return;
+        mSourceKeys.put(source, key);
+    }
+
+    /**
+     * @return whether {@code source} was played before with a blocked key.
+     */
+    public boolean containsSource(String source) {
+        if (source == null) return false;
+        String key;
+        synchronized (this) {
+            key = mSourceKeys.get(source);
+        }
+        return contains(key);
+    }
+
+    public void clear() {
+        mPreferences.edit().clear().apply();
+    }
+}
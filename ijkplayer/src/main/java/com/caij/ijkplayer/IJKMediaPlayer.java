@@ -2,61 +2,371 @@ package com.caij.ijkplayer;
 
 import android.content.Context;
 import android.net.Uri;
+import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import com.caij.video.BackgroundTeardown;
+import com.caij.video.BytesLoadedProvider;
 import com.caij.video.ExMediaPlayer;
+import com.caij.video.PlayerOptions;
+import com.caij.video.TrackConstraints;
+import com.caij.video.TrackInfo;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import tv.danmaku.ijk.media.player.IMediaPlayer;
 import tv.danmaku.ijk.media.player.IjkMediaPlayer;
-
-public class IJKMediaPlayer implements ExMediaPlayer {
+import tv.danmaku.ijk.media.player.MediaInfo;
+import tv.danmaku.ijk.media.player.IjkMediaMeta;
+import tv.danmaku.ijk.media.player.misc.ITrackInfo;
+
+/**
+ * Decodes video with MediaCodec by default. If the hardware decoder fails with a decoding error
+ * (malformed or unsupported data, no decoder), playback is prepared again with software decoding at
+ * the same position, and the combination is added to the {@link DecoderBlocklist} once software
+ * decoding works, so later sessions skip the hardware decoder for it. A source played before is checked against the blocklist before it is prepared;
+ * a new source can only be checked once its codec is known, and is then prepared again. When the
+ * source is prepared again after it was reported prepared, the prepared, seek complete and
+ * rendering start events of that hidden prepare are not reported. Network and IO errors always go
+ * to the error listener.
+ */
+public class IJKMediaPlayer implements ExMediaPlayer, BytesLoadedProvider, BackgroundTeardown {
+
+    private static final String TAG = "IJKMediaPlayer";
+
+    // ffmpeg的FFERRTAG错误码, ijk把它放在extra里
+    private static final int AVERROR_INVALIDDATA = -1094995529;
+    private static final int AVERROR_DECODER_NOT_FOUND = -1128613112;
+    private static final int AVERROR_PATCHWELCOME = -1163346256;
+    private static final int AVERROR_BUG = -558323010;
 
     private final IjkMediaPlayer ijkMediaPlayer;
+    private final DecoderBlocklist mDecoderBlocklist;
+    private PlayerOptions mOptions = new PlayerOptions();
+
+    private OnPreparedListener mOnPreparedListener;
+    private OnErrorListener mOnErrorListener;
+    private OnCompletionListener mOnCompletionListener;
+    private OnInfoListener mOnInfoListener;
+
+    // ijk没有native的next player, 在completion时直接启动已经prepared的下一个
+    private IJKMediaPlayer mNextPlayer;
+
+    private TrackConstraints mTrackConstraints;
+
+    // 软解重试时需要恢复的状态, native reset会全部清掉
+    private Context mContext;
+    private Uri mUri;
+    private Map<String, String> mHeaders;
+    private String mPath;
+    private Surface mSurface;
+    private SurfaceHolder mSurfaceHolder;
+    private boolean mLooping;
+    private float mSpeed = 1f;
+    private float mLeftVolume = 1f;
+    private float mRightVolume = 1f;
+
+    private boolean mPlayRequested;
+    private boolean mPreparedDelivered;
+    private boolean mForceSoftware;
+    private boolean mSwitching;
+    private long mSwitchPosition;
+    private boolean mSwitchPlaying;
+    private String mSwitchKey;
+    // 对外不可见的重新prepare, 吞掉它产生的事件
+    private boolean mHiddenPrepare;
+    private boolean mSuppressSeekComplete;
+    // native在后台reset/release期间, 不再处理它的事件
+    private volatile boolean mTearingDown;
 
     public IJKMediaPlayer(Context context){
         IjkMediaPlayer.loadLibrariesOnce(null);
         IjkMediaPlayer.native_profileBegin("libijkplayer.so");
         ijkMediaPlayer = new IjkMediaPlayer();
+        mDecoderBlocklist = DecoderBlocklist.get(context);
+        ijkMediaPlayer.setOnPreparedListener(new IMediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(IMediaPlayer iMediaPlayer) {
+                if (!mTearingDown) handlePrepared();
+            }
+        });
+        ijkMediaPlayer.setOnErrorListener(new IMediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(IMediaPlayer iMediaPlayer, int what, int extra) {
+                return mTearingDown || handleError(what, extra);
+            }
+        });
+        ijkMediaPlayer.setOnCompletionListener(new IMediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(IMediaPlayer iMediaPlayer) {
+                if (!mTearingDown) handleCompletion();
+            }
+        });
+        ijkMediaPlayer.setOnInfoListener(new IMediaPlayer.OnInfoListener() {
+            @Override
+            public boolean onInfo(IMediaPlayer iMediaPlayer, int what, int extra) {
+                if (mTearingDown) return true;
+                // 这些事件每次prepare只有一次, 重新prepare时对外已经发过了
+                if (mHiddenPrepare && isPrepareInfo(what)) return true;
+                return mOnInfoListener != null && mOnInfoListener.onInfo(IJKMediaPlayer.this, what, extra);
+            }
+        });
+        applyOptions();
+    }
+
+    private boolean isHardwareDecodeEnabled() {
+        return !mForceSoftware && !Boolean.FALSE.equals(mOptions.getHardwareDecode());
+    }
+
+    private boolean isHardwareDecoding() {
+        return ijkMediaPlayer.getVideoDecoder() == IjkMediaPlayer.FFP_PROPV_DECODER_MEDIACODEC;
+    }
+
+    /**
+     * 只有解码相关的错误才可能是硬解的问题, 网络和IO错误换软解也没用
+     */
+    private static boolean isDecoderError(int what, int extra) {
+        return isDecoderErrorCode(what) || isDecoderErrorCode(extra);
+    }
+
+    private static boolean isDecoderErrorCode(int code) {
+        return code == IMediaPlayer.MEDIA_ERROR_MALFORMED
+                || code == IMediaPlayer.MEDIA_ERROR_UNSUPPORTED
+                || code == AVERROR_INVALIDDATA
+                || code == AVERROR_DECODER_NOT_FOUND
+                || code == AVERROR_PATCHWELCOME
+                || code == AVERROR_BUG;
+    }
+
+    private static boolean isPrepareInfo(int what) {
+        return what == MEDIA_INFO_VIDEO_RENDERING_START
+                || what == IMediaPlayer.MEDIA_INFO_AUDIO_RENDERING_START
+                || what == MEDIA_INFO_DATA_SOURCE_RESOLVED;
+    }
+
+    private String getSource() {
+        return mPath != null ? mPath : mUri != null ? mUri.toString() : null;
+    }
+
+    /**
+     * @return the blocklist key of the current stream, or null before it is known.
+     */
+    private String getDecoderKey() {
+        MediaInfo mediaInfo = ijkMediaPlayer.getMediaInfo();
+        if (mediaInfo == null || mediaInfo.mMeta == null) return null;
+        IjkMediaMeta.IjkStreamMeta videoStream = mediaInfo.mMeta.mVideoStream;
+        if (videoStream == null) return null;
+        return DecoderBlocklist.buildKey(videoStream.mCodecName, videoStream.mWidth, videoStream.mHeight);
+    }
+
+    private void handlePrepared() {
+        String key = getDecoderKey();
+        mDecoderBlocklist.rememberSource(getSource(), key);
+        if (mSwitching) {
+            mSwitching = false;
+            if (mSwitchPosition > 0) {
+                mSuppressSeekComplete = true;
+                ijkMediaPlayer.seekTo(mSwitchPosition);
+            }
+            if (mSwitchPlaying) ijkMediaPlayer.start();
+            // 软解能正常播放才说明是硬解的问题
+            if (mSwitchKey != null) {
+                Log.w(TAG, "hardware decoder blocked " + mSwitchKey);
+                mDecoderBlocklist.add(mSwitchKey);
+            }
+            // 对外已经prepared过了, 不再重复通知
+            if (mPreparedDelivered) return;
+        } else if (isHardwareDecodeEnabled() && isHardwareDecoding() && mDecoderBlocklist.contains(key)) {
+            // 第一次播放的地址prepare前不知道编码, 只能现在切
+            switchToSoftware(null, 0);
+            return;
+        }
+        if (mTrackConstraints != null) applyTrackConstraints();
+        mPreparedDelivered = true;
+        if (mOnPreparedListener != null) mOnPreparedListener.onPrepared(this);
+    }
+
+    private boolean handleError(int what, int extra) {
+        if (mSwitching) {
+            // 软解也失败了, 大概率不是解码器的问题
+            mSwitching = false;
+            mHiddenPrepare = false;
+        } else if (isHardwareDecodeEnabled() && isHardwareDecoding() && isDecoderError(what, extra)) {
+            Log.w(TAG, "hardware decode error [" + what + "," + extra + "], retry with software");
+            switchToSoftware(getDecoderKey(), ijkMediaPlayer.getCurrentPosition());
+            return true;
+        }
+        return mOnErrorListener != null && mOnErrorListener.onError(this, what, extra);
+    }
+
+    private void handleCompletion() {
+        IJKMediaPlayer next = mNextPlayer;
+        mNextPlayer = null;
+        // 先通知completion, 让上层把surface交给下一个
+        if (mOnCompletionListener != null) mOnCompletionListener.onCompletion(this);
+        if (next != null && !mLooping) {
+            next.start();
+            if (next.mOnInfoListener != null) next.mOnInfoListener.onInfo(next, MEDIA_INFO_STARTED_AS_NEXT, 0);
+        }
+    }
+
+    /**
+     * Prepares the same source again with software decoding and continues from {@code position}.
+     *
+     * @param blockKey added to the blocklist once software decoding prepares, may be null.
+     */
+    private void switchToSoftware(String blockKey, long position) {
+        mForceSoftware = true;
+        mSwitching = true;
+        mSwitchKey = blockKey;
+        mSwitchPosition = position;
+        mSwitchPlaying = mPlayRequested;
+        mHiddenPrepare = mPreparedDelivered;
+        mSuppressSeekComplete = false;
+        ijkMediaPlayer.reset();
+        try {
+            if (mPath != null) {
+                ijkMediaPlayer.setDataSource(mPath);
+            } else {
+                ijkMediaPlayer.setDataSource(mContext, mUri, mHeaders);
+            }
+            if (mSurfaceHolder != null) {
+                ijkMediaPlayer.setDisplay(mSurfaceHolder);
+            } else if (mSurface != null) {
+                ijkMediaPlayer.setSurface(mSurface);
+            }
+            ijkMediaPlayer.setLooping(mLooping);
+            ijkMediaPlayer.setSpeed(mSpeed);
+            ijkMediaPlayer.setVolume(mLeftVolume, mRightVolume);
+            applyOptions();
+            // 由handlePrepared在seek之后决定是否播放
+            ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", 0);
+            ijkMediaPlayer.prepareAsync();
+        } catch (IOException | IllegalArgumentException | SecurityException | IllegalStateException e) {
+            Log.w(TAG, "software decoder retry failed " + e.getMessage());
+            mSwitching = false;
+            mHiddenPrepare = false;
+            if (mOnErrorListener != null) {
+                mOnErrorListener.onError(this, IMediaPlayer.MEDIA_ERROR_UNKNOWN,
+                        e instanceof IOException ? IMediaPlayer.MEDIA_ERROR_IO : IMediaPlayer.MEDIA_ERROR_UNKNOWN);
+            }
+        }
+    }
+
+    private void resetDecoderState() {
+        mPlayRequested = false;
+        mPreparedDelivered = false;
+        mForceSoftware = false;
+        mSwitching = false;
+        mSwitchKey = null;
+        mHiddenPrepare = false;
+        mSuppressSeekComplete = false;
+    }
+
+    /**
+     * native reset会重建native player, 这些也回到默认值. 不清掉的话软解重试会把上一个视频的设置带回来,
+     * 回收到PlayerPool后下一个使用者也会继承它们
+     */
+    private void resetPlaybackSettings() {
+        mTrackConstraints = null;
+        mLooping = false;
+        mSpeed = 1f;
+        mLeftVolume = 1f;
+        mRightVolume = 1f;
+    }
+
+    /**
+     * native reset会清空所有option, 所以每次prepare前都要重新设置
+     */
+    private void applyOptions() {
         ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "enable-accurate-seek", 1);
         ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "dns_cache_clear", 1);
+
+        PlayerOptions options = mOptions;
+        if (options.getProbeSize() != null) {
+            ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "probesize", options.getProbeSize());
+        }
+        if (options.getAnalyzeDurationMs() != null) {
+            // ffmpeg的单位是微秒
+            ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "analyzeduration", options.getAnalyzeDurationMs() * 1000);
+        }
+        if (options.getStartOnPrepared() != null) {
+            ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", options.getStartOnPrepared() ? 1 : 0);
+        }
+        if (options.getMaxBufferSize() != null) {
+            ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "max-buffer-size", options.getMaxBufferSize());
+        }
+        if (options.getFrameDrop() != null) {
+            ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop", options.getFrameDrop());
+        }
+        if (options.getReconnect() != null) {
+            ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "reconnect", options.getReconnect() ? 1 : 0);
+        }
+
+        int mediaCodec = isHardwareDecodeEnabled() ? 1 : 0;
+        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec", mediaCodec);
+        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-hevc", mediaCodec);
+        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-auto-rotate", mediaCodec);
+        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-handle-resolution-change", mediaCodec);
     }
 
     @Override
     public void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         ijkMediaPlayer.setDataSource(context, uri);
+        mContext = context.getApplicationContext();
+        mUri = uri;
+        mHeaders = null;
+        mPath = null;
     }
 
     @Override
     public void setDataSource(Context context, Uri uri, Map<String, String> headers) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         ijkMediaPlayer.setDataSource(context, uri, headers);
+        mContext = context.getApplicationContext();
+        mUri = uri;
+        mHeaders = headers;
+        mPath = null;
     }
 
     @Override
     public void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         ijkMediaPlayer.setDataSource(path);
+        mPath = path;
+        mUri = null;
+        mHeaders = null;
     }
 
     @Override
     public void prepareAsync() throws IllegalStateException {
+        // 播放过的地址已经知道编码, 在黑名单里就直接软解
+        if (isHardwareDecodeEnabled() && mDecoderBlocklist.containsSource(getSource())) {
+            mForceSoftware = true;
+        }
+        applyOptions();
+        // ijk默认prepared后自动播放
+        mPlayRequested = !Boolean.FALSE.equals(mOptions.getStartOnPrepared());
         ijkMediaPlayer.prepareAsync();
     }
 
     @Override
     public void start() throws IllegalStateException {
+        mPlayRequested = true;
         ijkMediaPlayer.start();
     }
 
     @Override
     public void stop() throws IllegalStateException {
+        mPlayRequested = false;
         ijkMediaPlayer.stop();
     }
 
     @Override
     public void pause() throws IllegalStateException {
+        mPlayRequested = false;
         ijkMediaPlayer.pause();
     }
 
@@ -65,9 +375,21 @@ public class IJKMediaPlayer implements ExMediaPlayer {
         ijkMediaPlayer.seekTo(msec);
     }
 
+    /**
+     * ijk的精确seek只能在prepare前通过option设置, prepare后改option不生效, 所以这里忽略mode,
+     * 关键帧seek(拖动预览)也是精确seek. 见README的已知限制
+     */
+    @Override
+    public void seekTo(int msec, int mode) throws IllegalStateException {
+        ijkMediaPlayer.seekTo(msec);
+    }
+
     @Override
     public void reset() {
+        mNextPlayer = null;
         ijkMediaPlayer.reset();
+        resetDecoderState();
+        resetPlaybackSettings();
     }
 
     @Override
@@ -76,6 +398,29 @@ public class IJKMediaPlayer implements ExMediaPlayer {
         IjkMediaPlayer.native_profileEnd();
     }
 
+    /**
+     * Java这边的状态在调用线程清掉, 耗时的native reset/release在后台做
+     */
+    @Override
+    public Runnable prepareTeardown(final boolean release) {
+        mTearingDown = true;
+        mNextPlayer = null;
+        resetDecoderState();
+        resetPlaybackSettings();
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (release) {
+                    ijkMediaPlayer.release();
+                    IjkMediaPlayer.native_profileEnd();
+                } else {
+                    ijkMediaPlayer.reset();
+                    mTearingDown = false;
+                }
+            }
+        };
+    }
+
     @Override
     public long getDuration() {
         return ijkMediaPlayer.getDuration();
@@ -103,11 +448,14 @@ public class IJKMediaPlayer implements ExMediaPlayer {
 
     @Override
     public void setVolume(float leftVolume, float rightVolume) {
+        mLeftVolume = leftVolume;
+        mRightVolume = rightVolume;
         ijkMediaPlayer.setVolume(leftVolume, rightVolume);
     }
 
     @Override
     public void setSpeed(float rate) {
+        mSpeed = rate;
         ijkMediaPlayer.setSpeed(rate);
     }
 
@@ -118,16 +466,21 @@ public class IJKMediaPlayer implements ExMediaPlayer {
 
     @Override
     public void setLooping(boolean looping) {
+        mLooping = looping;
         ijkMediaPlayer.setLooping(looping);
     }
 
     @Override
     public void setDisplay(SurfaceHolder sh) {
+        mSurfaceHolder = sh;
+        mSurface = null;
         ijkMediaPlayer.setDisplay(sh);
     }
 
     @Override
     public void setSurface(Surface surface) {
+        mSurface = surface;
+        mSurfaceHolder = null;
         ijkMediaPlayer.setSurface(surface);
     }
 
@@ -143,37 +496,130 @@ public class IJKMediaPlayer implements ExMediaPlayer {
 
     @Override
     public void setNextMediaPlayer(ExMediaPlayer nextMediaPlayer) throws UnsupportedOperationException {
-//        ijkMediaPlayer.setn
+        if (nextMediaPlayer != null && !(nextMediaPlayer instanceof IJKMediaPlayer)) {
+            throw new UnsupportedOperationException("next player 必须也是 IJKMediaPlayer");
+        }
+        mNextPlayer = (IJKMediaPlayer) nextMediaPlayer;
     }
 
     @Override
-    public void setOnPreparedListener(final OnPreparedListener listener) {
-        if (listener == null) {
-            ijkMediaPlayer.setOnPreparedListener(null);
-        } else {
-            ijkMediaPlayer.setOnPreparedListener(new IMediaPlayer.OnPreparedListener() {
-                @Override
-                public void onPrepared(IMediaPlayer iMediaPlayer) {
-                    listener.onPrepared(IJKMediaPlayer.this);
-                }
-            });
+    public List<String> setOptions(PlayerOptions options) {
+        mOptions = options;
+        // ijk的option覆盖了全部选项
+        return new ArrayList<>();
+    }
+
+    private List<IjkMediaMeta.IjkStreamMeta> getStreams() {
+        MediaInfo mediaInfo = ijkMediaPlayer.getMediaInfo();
+        if (mediaInfo == null || mediaInfo.mMeta == null || mediaInfo.mMeta.mStreams == null) {
+            return new ArrayList<>();
         }
+        return mediaInfo.mMeta.mStreams;
+    }
+
+    private static int toTrackType(String type) {
+        if (IjkMediaMeta.IJKM_VAL_TYPE__VIDEO.equals(type)) return TrackInfo.TYPE_VIDEO;
+        if (IjkMediaMeta.IJKM_VAL_TYPE__AUDIO.equals(type)) return TrackInfo.TYPE_AUDIO;
+        if (IjkMediaMeta.IJKM_VAL_TYPE__TIMEDTEXT.equals(type)) return TrackInfo.TYPE_TEXT;
+        return TrackInfo.TYPE_UNKNOWN;
     }
 
+    /**
+     * index是ffmpeg的stream序号, 和ijk的selectTrack一致
+     */
     @Override
-    public void setOnCompletionListener(final OnCompletionListener listener) {
-        if (listener == null){
-            ijkMediaPlayer.setOnCompletionListener(null);
+    public List<TrackInfo> getTrackInfo() {
+        int selectedVideo = ijkMediaPlayer.getSelectedTrack(ITrackInfo.MEDIA_TRACK_TYPE_VIDEO);
+        int selectedAudio = ijkMediaPlayer.getSelectedTrack(ITrackInfo.MEDIA_TRACK_TYPE_AUDIO);
+        int selectedText = ijkMediaPlayer.getSelectedTrack(ITrackInfo.MEDIA_TRACK_TYPE_TIMEDTEXT);
+        List<TrackInfo> tracks = new ArrayList<>();
+        for (IjkMediaMeta.IjkStreamMeta stream : getStreams()) {
+            int type = toTrackType(stream.mType);
+            boolean selected = type == TrackInfo.TYPE_VIDEO && stream.mIndex == selectedVideo
+                    || type == TrackInfo.TYPE_AUDIO && stream.mIndex == selectedAudio
+                    || type == TrackInfo.TYPE_TEXT && stream.mIndex == selectedText;
+            tracks.add(new TrackInfo(stream.mIndex, type,
+                    stream.mBitrate > 0 ? (int) stream.mBitrate : TrackInfo.UNKNOWN,
+                    stream.mWidth > 0 ? stream.mWidth : TrackInfo.UNKNOWN,
+                    stream.mHeight > 0 ? stream.mHeight : TrackInfo.UNKNOWN,
+                    stream.mCodecName, stream.mLanguage, selected));
+        }
+        return tracks;
+    }
+
+    @Override
+    public void selectTrack(int index) throws UnsupportedOperationException {
+        ijkMediaPlayer.selectTrack(index);
+    }
+
+    /**
+     * 视频轨按当前的限制重新选, 字幕直接关掉, 音轨ijk没有办法恢复默认选择
+     */
+    @Override
+    public void clearTrackSelection(int type) throws UnsupportedOperationException {
+        if (type == TrackInfo.TYPE_VIDEO) {
+            applyTrackConstraints();
+        } else if (type == TrackInfo.TYPE_TEXT) {
+            int selected = ijkMediaPlayer.getSelectedTrack(ITrackInfo.MEDIA_TRACK_TYPE_TIMEDTEXT);
+            if (selected >= 0) ijkMediaPlayer.deselectTrack(selected);
         } else {
-            ijkMediaPlayer.setOnCompletionListener(new IMediaPlayer.OnCompletionListener() {
-                @Override
-                public void onCompletion(IMediaPlayer iMediaPlayer) {
-                    listener.onCompletion(IJKMediaPlayer.this);
-                }
-            });
+            throw new UnsupportedOperationException("ijk 不能恢复默认音轨");
         }
     }
 
+    /**
+     * ijk没有自适应码率, 多路视频流(比如HLS的多个码率)时直接切到限制内最高的那一路
+     */
+    @Override
+    public void setTrackConstraints(TrackConstraints constraints) throws UnsupportedOperationException {
+        mTrackConstraints = constraints;
+        applyTrackConstraints();
+    }
+
+    private void applyTrackConstraints() {
+        TrackConstraints constraints = mTrackConstraints != null ? mTrackConstraints : new TrackConstraints();
+        IjkMediaMeta.IjkStreamMeta best = null;
+        IjkMediaMeta.IjkStreamMeta lowest = null;
+        int videoCount = 0;
+        for (IjkMediaMeta.IjkStreamMeta stream : getStreams()) {
+            if (toTrackType(stream.mType) != TrackInfo.TYPE_VIDEO) continue;
+            videoCount++;
+            if (lowest == null || rank(stream) < rank(lowest)) lowest = stream;
+            if (constraints.allows((int) stream.mBitrate, stream.mWidth, stream.mHeight)
+                    && (best == null || rank(stream) > rank(best))) {
+                best = stream;
+            }
+        }
+        if (videoCount < 2) return;
+        // 都超过限制时用最低的
+        if (best == null) best = lowest;
+        if (best.mIndex != ijkMediaPlayer.getSelectedTrack(ITrackInfo.MEDIA_TRACK_TYPE_VIDEO)) {
+            ijkMediaPlayer.selectTrack(best.mIndex);
+        }
+    }
+
+    private static long rank(IjkMediaMeta.IjkStreamMeta stream) {
+        return stream.mBitrate > 0 ? stream.mBitrate : (long) stream.mWidth * stream.mHeight;
+    }
+
+    /**
+     * ijk只能拿到已缓存未播放的字节数，对没有播放过的预加载来说就是已下载的字节数
+     */
+    @Override
+    public long getBytesLoaded() {
+        return ijkMediaPlayer.getVideoCachedBytes() + ijkMediaPlayer.getAudioCachedBytes();
+    }
+
+    @Override
+    public void setOnPreparedListener(OnPreparedListener listener) {
+        mOnPreparedListener = listener;
+    }
+
+    @Override
+    public void setOnCompletionListener(OnCompletionListener listener) {
+        mOnCompletionListener = listener;
+    }
+
     @Override
     public void setOnBufferingUpdateListener(final OnBufferingUpdateListener listener) {
         if (listener == null){
@@ -196,6 +642,11 @@ public class IJKMediaPlayer implements ExMediaPlayer {
             ijkMediaPlayer.setOnSeekCompleteListener(new IMediaPlayer.OnSeekCompleteListener() {
                 @Override
                 public void onSeekComplete(IMediaPlayer iMediaPlayer) {
+                    // 软解重试时恢复进度的seek, 对外不是一次seek
+                    if (mSuppressSeekComplete) {
+                        mSuppressSeekComplete = false;
+                        return;
+                    }
                     listener.onSeekComplete(IJKMediaPlayer.this);
                 }
             });
@@ -217,30 +668,12 @@ public class IJKMediaPlayer implements ExMediaPlayer {
     }
 
     @Override
-    public void setOnErrorListener(final OnErrorListener listener) {
-        if (listener == null){
-            ijkMediaPlayer.setOnErrorListener(null);
-        } else {
-            ijkMediaPlayer.setOnErrorListener(new IMediaPlayer.OnErrorListener() {
-                @Override
-                public boolean onError(IMediaPlayer iMediaPlayer, int i, int i1) {
-                    return listener.onError(IJKMediaPlayer.this, i, i1);
-                }
-            });
-        }
+    public void setOnErrorListener(OnErrorListener listener) {
+        mOnErrorListener = listener;
     }
 
     @Override
-    public void setOnInfoListener(final OnInfoListener listener) {
-        if (listener == null){
-            ijkMediaPlayer.setOnInfoListener(null);
-        } else {
-            ijkMediaPlayer.setOnInfoListener(new IMediaPlayer.OnInfoListener() {
-                @Override
-                public boolean onInfo(IMediaPlayer iMediaPlayer, int i, int i1) {
-                    return listener.onInfo(IJKMediaPlayer.this, i, i1);
-                }
-            });
-        }
+    public void setOnInfoListener(OnInfoListener listener) {
+        mOnInfoListener = listener;
     }
 }
@@ -0,0 +1,570 @@
+package com.caij.video;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs an {@link ExMediaPlayer} on a player thread so blocking engine calls (setDataSource, stop,
+ * reset, release) never stall the caller.
+ *
+ * <p>The engine is created on the player thread by the given factory, so engines that bind to the
+ * current looper (ExoPlayer, ijk, MediaPlayer event handlers) post their events there. Commands are
+ * queued and run in call order; each returns a {@link PlayerFuture} that can be waited on or given
+ * callbacks. Callbacks and player events are delivered on the executor passed to the constructor.
+ * By default every player gets its own thread, which quits after {@link #release()}, so one slow
+ * release does not hold up the commands of other players.
+ *
+ * <p>This is not an {@link ExMediaPlayer}: every call returns a future, so it cannot be used with
+ * {@link XMediaPlayer}, {@link Binder}, {@link SimpleVideoView} or {@link PlayerPool}. Give it a
+ * surface with {@link #setSurface(Surface)}. The engine itself is never handed out, use
+ * {@link #submit(Task)} to reach it on the player thread.
+ */
+public class AsyncExMediaPlayer {
+
+    /**
+     * Player events, delivered on the callback executor. Error and info events are always reported
+     * to the engine as handled.
+     */
+    public interface EventListener {
+        void onPrepared(AsyncExMediaPlayer player);
+
+        void onCompletion(AsyncExMediaPlayer player);
+
+        void onBufferingUpdate(AsyncExMediaPlayer player, int percent);
+
+        void onSeekComplete(AsyncExMediaPlayer player);
+
+        void onVideoSizeChanged(AsyncExMediaPlayer player, int width, int height);
+
+        void onError(AsyncExMediaPlayer player, int what, int extra);
+
+        void onInfo(AsyncExMediaPlayer player, int what, int extra);
+    }
+
+    /**
+     * Work to run against the engine on the player thread.
+     */
+    public interface Task<T> {
+        T run(ExMediaPlayer player) throws Exception;
+    }
+
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Throwable error);
+    }
+
+    private final Handler mHandler;
+    private final Executor mCallbackExecutor;
+    private final EngineListener mEngineListener = new EngineListener();
+    // 自己创建的播放线程, release后退出
+    private final HandlerThread mOwnThread;
+
+    // 只在播放线程访问
+    private ExMediaPlayer mPlayer;
+    private Exception mCreateError;
+    private boolean mReleased;
+    private volatile EventListener mEventListener;
+
+    /**
+     * Creates the engine on a new player thread of its own.
+     */
+    public AsyncExMediaPlayer(PlayerPool.Factory factory, Executor callbackExecutor) {
+        this(factory, startPlayerThread(), callbackExecutor);
+    }
+
+    /**
+     * @param looper           the player thread. It can be shared by several players, their commands
+     *                         then wait on each other.
+     * @param callbackExecutor receives command callbacks and player events.
+     */
+    public AsyncExMediaPlayer(PlayerPool.Factory factory, Looper looper, Executor callbackExecutor) {
+        this(factory, looper, null, callbackExecutor);
+    }
+
+    private AsyncExMediaPlayer(PlayerPool.Factory factory, HandlerThread ownThread, Executor callbackExecutor) {
+        this(factory, ownThread.getLooper(), ownThread, callbackExecutor);
+    }
+
+    private AsyncExMediaPlayer(final PlayerPool.Factory factory, Looper looper, HandlerThread ownThread,
+                               Executor callbackExecutor) {
+        mHandler = new Handler(looper);
+        mOwnThread = ownThread;
+        mCallbackExecutor = callbackExecutor;
+        enqueue(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ExMediaPlayer player;
+                try {
+                    player = factory.create();
+                } catch (Exception e) {
+                    // 之后的每个命令都带上这个原因, 否则只能看到播放器不可用
+                    mCreateError = e;
+                    throw e;
+                }
+                player.setOnPreparedListener(mEngineListener);
+                player.setOnCompletionListener(mEngineListener);
+                player.setOnBufferingUpdateListener(mEngineListener);
+                player.setOnSeekCompleteListener(mEngineListener);
+                player.setOnVideoSizeChangedListener(mEngineListener);
+                player.setOnErrorListener(mEngineListener);
+                player.setOnInfoListener(mEngineListener);
+                mPlayer = player;
+                return null;
+            }
+        });
+    }
+
+    private static HandlerThread startPlayerThread() {
+        HandlerThread thread = new HandlerThread("ExMediaPlayer");
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @return an executor that runs on the main thread.
+     */
+    public static Executor mainThreadExecutor() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    public void setEventListener(EventListener listener) {
+        mEventListener = listener;
+    }
+
+    /**
+     * Runs {@code task} on the player thread after every command queued before it. If the engine
+     * could not be created, the future fails with an {@link IllegalStateException} caused by the
+     * factory's exception.
+     */
+    public <T> PlayerFuture<T> submit(final Task<T> task) {
+        return enqueue(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return task.run(requirePlayer());
+            }
+        });
+    }
+
+    /**
+     * 只在播放线程调用
+     */
+    private ExMediaPlayer requirePlayer() {
+        if (mReleased) throw new IllegalStateException("播放器已释放");
+        if (mPlayer == null) throw new IllegalStateException("播放器创建失败", mCreateError);
+        return mPlayer;
+    }
+
+    private <T> PlayerFuture<T> enqueue(Callable<T> callable) {
+        PlayerFuture<T> future = new PlayerFuture<>(callable);
+        if (!mHandler.post(future)) {
+            future.fail(new IllegalStateException("播放线程已退出"));
+        }
+        return future;
+    }
+
+    public PlayerFuture<Void> setDataSource(final Context context, final Uri uri) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) throws Exception {
+                player.setDataSource(context, uri);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> setDataSource(final Context context, final Uri uri, final Map<String, String> headers) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) throws Exception {
+                player.setDataSource(context, uri, headers);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> setDataSource(final String path) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) throws Exception {
+                player.setDataSource(path);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<List<String>> setOptions(final PlayerOptions options) {
+        return submit(new Task<List<String>>() {
+            @Override
+            public List<String> run(ExMediaPlayer player) {
+                return player.setOptions(options);
+            }
+        });
+    }
+
+    public PlayerFuture<List<TrackInfo>> getTrackInfo() {
+        return submit(new Task<List<TrackInfo>>() {
+            @Override
+            public List<TrackInfo> run(ExMediaPlayer player) {
+                return player.getTrackInfo();
+            }
+        });
+    }
+
+    public PlayerFuture<Void> selectTrack(final int index) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.selectTrack(index);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> clearTrackSelection(final int type) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.clearTrackSelection(type);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> setTrackConstraints(final TrackConstraints constraints) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.setTrackConstraints(constraints);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> prepareAsync() {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.prepareAsync();
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> start() {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.start();
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> pause() {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.pause();
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> stop() {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.stop();
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> seekTo(final int msec) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.seekTo(msec);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * When the surface is about to be destroyed (e.g. {@code surfaceDestroyed}), wait on the returned
+     * future so the engine has let go of it before returning.
+     */
+    public PlayerFuture<Void> setSurface(final Surface surface) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.setSurface(surface);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> setVolume(final float leftVolume, final float rightVolume) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.setVolume(leftVolume, rightVolume);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> setSpeed(final float rate) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.setSpeed(rate);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Void> setLooping(final boolean looping) {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.setLooping(looping);
+                return null;
+            }
+        });
+    }
+
+    public PlayerFuture<Long> getCurrentPosition() {
+        return submit(new Task<Long>() {
+            @Override
+            public Long run(ExMediaPlayer player) {
+                return player.getCurrentPosition();
+            }
+        });
+    }
+
+    public PlayerFuture<Long> getDuration() {
+        return submit(new Task<Long>() {
+            @Override
+            public Long run(ExMediaPlayer player) {
+                return player.getDuration();
+            }
+        });
+    }
+
+    public PlayerFuture<Boolean> isPlaying() {
+        return submit(new Task<Boolean>() {
+            @Override
+            public Boolean run(ExMediaPlayer player) {
+                return player.isPlaying();
+            }
+        });
+    }
+
+    public PlayerFuture<Void> reset() {
+        return submit(new Task<Void>() {
+            @Override
+            public Void run(ExMediaPlayer player) {
+                player.reset();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Releases the engine. Events stop right away; commands queued afterwards fail. If the engine
+     * could not be created, only the player thread is quit.
+     */
+    public PlayerFuture<Void> release() {
+        mEventListener = null;
+        return enqueue(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (mReleased) return null;
+                ExMediaPlayer player = mPlayer;
+                mPlayer = null;
+                mReleased = true;
+                try {
+                    if (player != null) player.release();
+                } finally {
+                    if (mOwnThread != null) mOwnThread.quitSafely();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Result of a queued command.
+     */
+    public class PlayerFuture<T> extends FutureTask<T> {
+
+        private final List<Callback<? super T>> mCallbacks = new ArrayList<>();
+
+        PlayerFuture(Callable<T> callable) {
+            super(callable);
+        }
+
+        /**
+         * @param callback called on the callback executor once the command has run, right away if
+         *                 it already has.
+         */
+        public PlayerFuture<T> addCallback(Callback<? super T> callback) {
+            synchronized (this) {
+                if (!isDone()) {
+                    mCallbacks.add(callback);
+                    return this;
+                }
+            }
+            dispatch(callback);
+            return this;
+        }
+
+        void fail(Throwable error) {
+            setException(error);
+        }
+
+        @Override
+        protected void done() {
+            List<Callback<? super T>> callbacks;
+            synchronized (this) {
+                callbacks = new ArrayList<>(mCallbacks);
+                mCallbacks.clear();
+            }
+            for (Callback<? super T> callback : callbacks) {
+                dispatch(callback);
+            }
+        }
+
+        private void dispatch(final Callback<? super T> callback) {
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    T result;
+                    try {
+                        result = get();
+                    } catch (ExecutionException e) {
+                        callback.onFailure(e.getCause());
+                        return;
+                    } catch (CancellationException | InterruptedException e) {
+                        callback.onFailure(e);
+                        return;
+                    }
+                    callback.onSuccess(result);
+                }
+            });
+        }
+    }
+
+    /**
+     * 引擎只在播放线程使用, 回调里给的是这个包装
+     */
+    private class EngineListener implements XMediaPlayer.EventListener {
+
+        @Override
+        public void onPrepared(ExMediaPlayer mp) {
+            final EventListener listener = mEventListener;
+            if (listener == null) return;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onPrepared(AsyncExMediaPlayer.this);
+                }
+            });
+        }
+
+        @Override
+        public void onCompletion(ExMediaPlayer mp) {
+            final EventListener listener = mEventListener;
+            if (listener == null) return;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onCompletion(AsyncExMediaPlayer.this);
+                }
+            });
+        }
+
+        @Override
+        public void onBufferingUpdate(ExMediaPlayer mp, final int percent) {
+            final EventListener listener = mEventListener;
+            if (listener == null) return;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onBufferingUpdate(AsyncExMediaPlayer.this, percent);
+                }
+            });
+        }
+
+        @Override
+        public void onSeekComplete(ExMediaPlayer mp) {
+            final EventListener listener = mEventListener;
+            if (listener == null) return;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onSeekComplete(AsyncExMediaPlayer.this);
+                }
+            });
+        }
+
+        @Override
+        public void onVideoSizeChanged(ExMediaPlayer mp, final int width, final int height) {
+            final EventListener listener = mEventListener;
+            if (listener == null) return;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onVideoSizeChanged(AsyncExMediaPlayer.this, width, height);
+                }
+            });
+        }
+
+        @Override
+        public boolean onError(ExMediaPlayer mp, final int what, final int extra) {
+            final EventListener listener = mEventListener;
+            if (listener == null) return true;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onError(AsyncExMediaPlayer.this, what, extra);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean onInfo(ExMediaPlayer mp, final int what, final int extra) {
+            final EventListener listener = mEventListener;
+            if (listener == null) return true;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onInfo(AsyncExMediaPlayer.this, what, extra);
+                }
+            });
+            return true;
+        }
+    }
+}
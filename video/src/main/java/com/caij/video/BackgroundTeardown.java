@@ -0,0 +1,16 @@
+package com.caij.video;
+
+/**
+ * Optional capability of an {@link ExMediaPlayer} whose blocking part of reset and release may run
+ * on a background thread. {@link XMediaPlayer#resetAsync} and {@link XMediaPlayer#releaseAsync} run
+ * the teardown of engines without it on the thread that created them.
+ */
+public interface BackgroundTeardown {
+
+    /**
+     * Called on the thread that owns the engine. Stops the engine from acting on its own events and
+     * returns the rest of {@link ExMediaPlayer#reset()} or {@link ExMediaPlayer#release()}, which is
+     * run once on a background thread. The engine is not used again before that is done.
+     */
+    Runnable prepareTeardown(boolean release);
+}
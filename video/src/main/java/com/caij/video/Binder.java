@@ -10,6 +10,7 @@ public class Binder implements ExMediaPlayer.OnVideoSizeChangedListener, ExMedia
 
     private XMediaPlayer xMediaPlayer;
     private SimpleVideoView mSimpleVideoView;
+    private boolean mFirstFrameRendered;
 
     public Binder(XMediaPlayer mediaPlayer) {
         xMediaPlayer = mediaPlayer;
@@ -36,9 +37,46 @@ public class Binder implements ExMediaPlayer.OnVideoSizeChangedListener, ExMedia
         }
     }
 
+    /**
+     * Moves the player, playing or not, from the bound view to {@code simpleVideoView} without
+     * rebuffering, see {@link XMediaPlayer#handoffTo}. The aspect ratio is applied to the new view
+     * right away; its shutter is hidden once the engine has switched to its surface, if the current
+     * source rendered a frame before. Keep the old view attached until {@code listener} is called.
+     *
+     * @param listener gets the handoff latency, may be null.
+     */
+    public void handoff(final SimpleVideoView simpleVideoView, final XMediaPlayer.HandoffListener listener) {
+        final SimpleVideoView oldView = mSimpleVideoView;
+        if (oldView == simpleVideoView) {
+            xMediaPlayer.handoffTo(simpleVideoView.getSurfaceView(), listener);
+            return;
+        }
+        mSimpleVideoView = simpleVideoView;
+        View shutterView = simpleVideoView.getShutterView();
+        if (shutterView != null) shutterView.setVisibility(View.VISIBLE);
+        int width = xMediaPlayer.getVideoWidth();
+        int height = xMediaPlayer.getVideoHeight();
+        if (width > 0 && height > 0) simpleVideoView.setAspectRatio(width * 1f / height);
+
+        xMediaPlayer.handoffTo(simpleVideoView.getSurfaceView(), new XMediaPlayer.HandoffListener() {
+            @Override
+            public void onHandoffComplete(XMediaPlayer player, long latencyMs) {
+                if (mFirstFrameRendered && mSimpleVideoView == simpleVideoView) {
+                    simpleVideoView.onRenderedFirstFrame();
+                }
+                // 旧view不再有画面更新, 盖住最后一帧
+                if (oldView != null && oldView.getShutterView() != null) {
+                    oldView.getShutterView().setVisibility(View.VISIBLE);
+                }
+                if (listener != null) listener.onHandoffComplete(player, latencyMs);
+            }
+        });
+    }
+
     @Override
     public boolean onInfo(ExMediaPlayer mp, int what, int extra) {
         if (what == ExMediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START) {
+            mFirstFrameRendered = true;
             if (mSimpleVideoView != null) mSimpleVideoView.onRenderedFirstFrame();
         }
         return false;
@@ -51,6 +89,8 @@ public class Binder implements ExMediaPlayer.OnVideoSizeChangedListener, ExMedia
 
     @Override
     public void onPrepared(ExMediaPlayer mp) {
+        // 新的数据源还没有画面, 不能沿用上一个视频的状态
+        mFirstFrameRendered = false;
         //这个兼容部分版本问题
         if (mSimpleVideoView != null) mSimpleVideoView.onRenderedFirstFrame();
     }
@@ -0,0 +1,13 @@
+package com.caij.video;
+
+/**
+ * Optional capability of an {@link ExMediaPlayer} that can tell how many media bytes it has
+ * loaded for the current data source.
+ */
+public interface BytesLoadedProvider {
+
+    /**
+     * @return bytes loaded since the last {@link ExMediaPlayer#setDataSource}, or 0 if unknown.
+     */
+    long getBytesLoaded();
+}
@@ -0,0 +1,25 @@
+package com.caij.video;
+
+import android.os.SystemClock;
+
+/**
+ * Time source of the classes that expire or measure things, so tests can drive time.
+ */
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    long currentTimeMillis();
+
+    long elapsedRealtime();
+}
@@ -24,18 +24,26 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 public interface ExMediaPlayer {
+    int MEDIA_INFO_STARTED_AS_NEXT = 2; // MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT
     int MEDIA_INFO_VIDEO_RENDERING_START = 3; // MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START
+    int SEEK_CLOSEST_SYNC = 2; // MediaPlayer.SEEK_CLOSEST_SYNC
+    int SEEK_CLOSEST = 3; // MediaPlayer.SEEK_CLOSEST
+
     int MEDIA_INFO_BUFFERING_START = 701;
     int MEDIA_INFO_BUFFERING_END = 702;
     int MEDIA_INFO_VIDEO_ROTATION_CHANGED = 10001;
+    int MEDIA_INFO_DATA_SOURCE_RESOLVED = 10005; // IjkMediaPlayer.MEDIA_INFO_OPEN_INPUT
+    int MEDIA_INFO_TRACKS_CHANGED = 10100; // getTrackInfo() 的结果变了
 
     int EXO_MEDIA_ERROR_WHAT_IO = -4000;
     int EXO_MEDIA_ERROR_WHAT_EXTRACTOR = -4001; // UnrecognizedInputFormatException
     int EXO_MEIDA_ERROR_ILLEGAL_STATE = -4002; // IllegalStateException
     int EXO_MEIDA_ERROR_MEDIACODEC_DECODER_INIT = -4003; //  MediaCodecRenderer.DecoderInitializationException
+    int EXO_MEDIA_ERROR_WHAT_UNSUPPORTED_TYPE = -4004; // DASH/SS 缺少对应的exoplayer模块
     int EXO_MEDIA_ERROR_WHAT_UNKNOWN = -4999;
     int EXO_MEDIA_ERROR_EXTRA_UNKNOWN = -1;
     int EXO_MEDIA_ERROR_EXTRA_NETWORK = -2;
@@ -62,6 +70,12 @@ public interface ExMediaPlayer {
 
     void seekTo(int msec) throws IllegalStateException;
 
+    /**
+     * @param mode {@link #SEEK_CLOSEST_SYNC} for a fast seek to the nearest key frame, or
+     *             {@link #SEEK_CLOSEST} for an accurate one. Engines that cannot choose use their default.
+     */
+    void seekTo(int msec, int mode) throws IllegalStateException;
+
     void reset();
 
     void release();
@@ -93,8 +107,46 @@ public interface ExMediaPlayer {
     @Deprecated
     void setWakeMode(Context context, int mode);
 
+    /**
+     * Chains {@code nextMediaPlayer}, a player of the same engine with its data source set (and
+     * prepared, except for Exo), to start as soon as this one completes. The player that starts
+     * reports {@link #MEDIA_INFO_STARTED_AS_NEXT}. Exo plays the next source itself, so the info is
+     * reported by this player and {@code nextMediaPlayer} stays unused.
+     *
+     * @param nextMediaPlayer null to clear.
+     */
     void setNextMediaPlayer(ExMediaPlayer nextMediaPlayer) throws UnsupportedOperationException;
 
+    /**
+     * Replaces the options used from the next {@link #prepareAsync()} on. Options set earlier and
+     * missing from {@code options} go back to the engine default.
+     *
+     * @return keys of the options this engine does not support, they are ignored.
+     */
+    List<String> setOptions(PlayerOptions options);
+
+    /**
+     * @return the tracks of the prepared source, empty before it is prepared.
+     */
+    List<TrackInfo> getTrackInfo();
+
+    /**
+     * Pins the track with {@link TrackInfo#index} {@code index} in place of the automatic choice for
+     * its type, without preparing again.
+     */
+    void selectTrack(int index) throws UnsupportedOperationException;
+
+    /**
+     * Goes back to the automatic choice for tracks of {@code type}, e.g. {@link TrackInfo#TYPE_VIDEO}.
+     */
+    void clearTrackSelection(int type) throws UnsupportedOperationException;
+
+    /**
+     * Limits the automatic video track choice, applied to the playing source without preparing again.
+     * Cleared by {@link #reset()}, like looping, speed and volume.
+     */
+    void setTrackConstraints(TrackConstraints constraints) throws UnsupportedOperationException;
+
     void setOnPreparedListener(OnPreparedListener listener);
 
     void setOnCompletionListener(OnCompletionListener listener);
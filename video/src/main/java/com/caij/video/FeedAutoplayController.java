@@ -0,0 +1,254 @@
+package com.caij.video;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import java.io.IOException;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Plays the video of the most visible cell of a RecyclerView feed, with at most one player at a
+ * time taken from a {@link PlayerPool}.
+ *
+ * <p>A cell is a candidate when at least {@link #setMinVisibleFraction(float) the minimum fraction}
+ * of its {@link SimpleVideoView} is visible. A new player is only started while the scroll is
+ * slower than {@link #setMaxStartVelocity(int) the start velocity}, so a fling starts nothing; the
+ * playing cell is still stopped as soon as it drops below the threshold. The player of a cell that
+ * stops playing is paused, unbound from its view and given back to the pool.
+ *
+ * <p>The app needs androidx.recyclerview, the video module only compiles against it.
+ */
+public class FeedAutoplayController extends RecyclerView.OnScrollListener {
+
+    private static final String TAG = "FeedAutoplayController";
+
+    public static final float DEFAULT_MIN_VISIBLE_FRACTION = 0.6f;
+    public static final int DEFAULT_MAX_START_VELOCITY = 1500; // px/s
+
+    public interface Callback {
+        /**
+         * @return the video view of the cell, null if the cell has no video.
+         */
+        SimpleVideoView getVideoView(RecyclerView.ViewHolder holder);
+
+        /**
+         * Sets the data source of the item at {@code position} on a reset {@code player}. The
+         * controller prepares and starts it.
+         */
+        void setDataSource(XMediaPlayer player, int position) throws IOException;
+    }
+
+    private final PlayerPool mPlayerPool;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private RecyclerView mRecyclerView;
+
+    private float mMinVisibleFraction = DEFAULT_MIN_VISIBLE_FRACTION;
+    private int mMaxStartVelocity = DEFAULT_MAX_START_VELOCITY;
+
+    private XMediaPlayer mPlayer;
+    private int mActivePosition = RecyclerView.NO_POSITION;
+    private int mFailedPosition = RecyclerView.NO_POSITION;
+    private boolean mResumed = true;
+
+    private long mLastScrolledAt;
+    private float mVelocity;
+
+    // 滚动时每帧都会计算, 复用
+    private final Rect mVisibleRect = new Rect();
+    private final Rect mBounds = new Rect();
+
+    public FeedAutoplayController(PlayerPool playerPool, Callback callback) {
+        mPlayerPool = playerPool;
+        mCallback = callback;
+    }
+
+    public void attach(RecyclerView recyclerView) {
+        if (mRecyclerView == recyclerView) return;
+        detach();
+        mRecyclerView = recyclerView;
+        recyclerView.addOnScrollListener(this);
+    }
+
+    /**
+     * Stops playback and stops listening to the RecyclerView.
+     */
+    public void detach() {
+        stopActive();
+        if (mRecyclerView != null) {
+            mRecyclerView.removeOnScrollListener(this);
+            mRecyclerView = null;
+        }
+    }
+
+    public void setMinVisibleFraction(float fraction) {
+        mMinVisibleFraction = fraction;
+    }
+
+    /**
+     * @param pxPerSecond new players are only started while the feed scrolls slower than this.
+     */
+    public void setMaxStartVelocity(int pxPerSecond) {
+        mMaxStartVelocity = pxPerSecond;
+    }
+
+    /**
+     * @return the player of the playing cell, or null.
+     */
+    public XMediaPlayer getPlayer() {
+        return mPlayer;
+    }
+
+    public int getActivePosition() {
+        return mActivePosition;
+    }
+
+    /**
+     * Pauses the playing cell, e.g. from onPause. It is resumed by {@link #resume()}.
+     */
+    public void pause() {
+        mResumed = false;
+        if (mPlayer != null && mPlayer.isPlaying()) mPlayer.pause();
+    }
+
+    public void resume() {
+        mResumed = true;
+        update();
+    }
+
+    /**
+     * Re-evaluates the visible cells, call after the adapter data or the layout changed.
+     */
+    public void update() {
+        if (mRecyclerView == null) return;
+        if (mRecyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) mVelocity = 0;
+        evaluate();
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            mVelocity = 0;
+            evaluate();
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        long now = SystemClock.elapsedRealtime();
+        long elapsed = now - mLastScrolledAt;
+        mLastScrolledAt = now;
+        if (elapsed > 0 && elapsed < 200) {
+            float velocity = Math.max(Math.abs(dx), Math.abs(dy)) * 1000f / elapsed;
+            // 帧间隔不稳定, 做一下平滑
+            mVelocity = mVelocity * 0.5f + velocity * 0.5f;
+        } else {
+            mVelocity = Float.MAX_VALUE;
+        }
+        evaluate();
+    }
+
+    private void evaluate() {
+        RecyclerView recyclerView = mRecyclerView;
+        if (recyclerView == null) return;
+        RecyclerView.ViewHolder best = null;
+        SimpleVideoView bestView = null;
+        float bestFraction = 0;
+        float activeFraction = 0;
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder = recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) continue;
+            SimpleVideoView view = mCallback.getVideoView(holder);
+            if (view == null) continue;
+            float fraction = getVisibleFraction(recyclerView, view);
+            if (position == mActivePosition) activeFraction = fraction;
+            if (fraction >= mMinVisibleFraction && fraction > bestFraction && position != mFailedPosition) {
+                best = holder;
+                bestView = view;
+                bestFraction = fraction;
+            }
+        }
+
+        if (mActivePosition != RecyclerView.NO_POSITION && activeFraction < mMinVisibleFraction) {
+            stopActive();
+        }
+        if (best == null || best.getAdapterPosition() == mActivePosition) return;
+        // 快速滑动时不启动新的播放器, 当前的继续播到不可见为止
+        if (mVelocity > mMaxStartVelocity || !mResumed) return;
+        // 差不多可见时不来回切换
+        if (mActivePosition != RecyclerView.NO_POSITION && bestFraction <= activeFraction) return;
+        play(best.getAdapterPosition(), bestView);
+    }
+
+    private float getVisibleFraction(RecyclerView recyclerView, View view) {
+        int width = view.getWidth();
+        int height = view.getHeight();
+        if (width <= 0 || height <= 0 || !view.isShown()) return 0;
+        view.getDrawingRect(mVisibleRect);
+        recyclerView.offsetDescendantRectToMyCoords(view, mVisibleRect);
+        mBounds.set(recyclerView.getPaddingLeft(), recyclerView.getPaddingTop(),
+                recyclerView.getWidth() - recyclerView.getPaddingRight(),
+                recyclerView.getHeight() - recyclerView.getPaddingBottom());
+        if (!mVisibleRect.intersect(mBounds)) return 0;
+        return (float) mVisibleRect.width() * mVisibleRect.height() / (width * height);
+    }
+
+    private void play(int position, SimpleVideoView view) {
+        stopActive();
+        final XMediaPlayer player = mPlayerPool.acquire();
+        new Binder(player).binder(view);
+        try {
+            mCallback.setDataSource(player, position);
+        } catch (IOException e) {
+            Log.w(TAG, "setDataSource failed at " + position + " " + e.getMessage());
+            mFailedPosition = position;
+            mPlayerPool.recycle(player);
+            return;
+        }
+        mPlayer = player;
+        mActivePosition = position;
+        player.setOptions(new PlayerOptions().setStartOnPrepared(false));
+        player.addOnPreparedListener(new ExMediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(ExMediaPlayer mp) {
+                if (mPlayer == player && mResumed) player.start();
+            }
+        });
+        player.addOnErrorListener(new ExMediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(ExMediaPlayer mp, int what, int extra) {
+                if (mPlayer != player) return true;
+                // 出错的位置不再自动播放, 直到换了别的位置
+                mFailedPosition = mActivePosition;
+                // 不要在引擎的错误回调里reset播放器
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPlayer == player) stopActive();
+                    }
+                });
+                // 已经处理了, 不要再回调onCompletion
+                return true;
+            }
+        });
+        player.prepareAsync();
+        Log.d(TAG, "play " + position);
+    }
+
+    private void stopActive() {
+        XMediaPlayer player = mPlayer;
+        mPlayer = null;
+        if (mActivePosition != mFailedPosition) mFailedPosition = RecyclerView.NO_POSITION;
+        mActivePosition = RecyclerView.NO_POSITION;
+        if (player == null) return;
+        if (player.isPlaying()) player.pause();
+        // 回收时会解绑surface和监听
+        mPlayerPool.recycle(player);
+    }
+}
@@ -0,0 +1,53 @@
+package com.caij.video;
+
+import java.util.Arrays;
+
+/**
+ * Copy-on-write listener list. Adding and removing copy the array, dispatching only reads the current
+ * snapshot, so it allocates nothing and listeners may add or remove listeners while it runs.
+ */
+final class ListenerArray<T> {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] mListeners = EMPTY;
+
+    synchronized void add(T listener) {
+        if (listener == null) return;
+        Object[] listeners = mListeners;
+        Object[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        mListeners = newListeners;
+    }
+
+    synchronized void remove(T listener) {
+        Object[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                Object[] newListeners = new Object[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                mListeners = newListeners;
+                return;
+            }
+        }
+    }
+
+    boolean contains(T listener) {
+        for (Object l : mListeners) {
+            if (l == listener) return true;
+        }
+        return false;
+    }
+
+    void clear() {
+        mListeners = EMPTY;
+    }
+
+    /**
+     * @return the listeners at this moment, never modified afterwards. Elements are of type T.
+     */
+    Object[] snapshot() {
+        return mListeners;
+    }
+}
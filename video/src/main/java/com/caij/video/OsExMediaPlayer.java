@@ -1,6 +1,7 @@
 package com.caij.video;
 
 import android.content.Context;
+import android.media.MediaFormat;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
@@ -9,11 +10,15 @@ import android.view.SurfaceHolder;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
-public class OsExMediaPlayer implements ExMediaPlayer {
+public class OsExMediaPlayer implements ExMediaPlayer, BackgroundTeardown {
 
     private MediaPlayer mMediaPlayer;
+    private boolean mStartOnPrepared;
+    private volatile boolean mTearingDown;
 
     public OsExMediaPlayer() {
         mMediaPlayer = new MediaPlayer();
@@ -61,6 +66,15 @@ public class OsExMediaPlayer implements ExMediaPlayer {
         mMediaPlayer.seekTo(msec);
     }
 
+    @Override
+    public void seekTo(int msec, int mode) throws IllegalStateException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            mMediaPlayer.seekTo(msec, mode == SEEK_CLOSEST_SYNC ? MediaPlayer.SEEK_CLOSEST_SYNC : MediaPlayer.SEEK_CLOSEST);
+        } else {
+            mMediaPlayer.seekTo(msec);
+        }
+    }
+
     @Override
     public void reset() {
         mMediaPlayer.reset();
@@ -75,6 +89,35 @@ public class OsExMediaPlayer implements ExMediaPlayer {
         mMediaPlayer = null;
     }
 
+    /**
+     * MediaPlayer的native调用是加锁的, reset/release可以放到后台线程
+     */
+    @Override
+    public Runnable prepareTeardown(final boolean release) {
+        final MediaPlayer mediaPlayer = mMediaPlayer;
+        // 后台reset完成前到达的prepared不要再自己start, START_ON_PREPARED选项和同步reset一样保留
+        mTearingDown = true;
+        if (release) mMediaPlayer = null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (release) {
+                    mediaPlayer.setDisplay(null);
+                    try {
+                        mediaPlayer.stop();
+                    } catch (IllegalStateException ignored) {
+                        // 回收池里reset过的播放器不能stop
+                    }
+                    mediaPlayer.reset();
+                    mediaPlayer.release();
+                } else {
+                    mediaPlayer.reset();
+                    mTearingDown = false;
+                }
+            }
+        };
+    }
+
     @Override
     public long getDuration() {
         return mMediaPlayer.getDuration();
@@ -144,7 +187,95 @@ public class OsExMediaPlayer implements ExMediaPlayer {
 
     @Override
     public void setNextMediaPlayer(ExMediaPlayer nextMediaPlayer) throws UnsupportedOperationException {
-//        mMediaPlayer.setNextMediaPlayer(nextMediaPlayer);
+        if (nextMediaPlayer != null && !(nextMediaPlayer instanceof OsExMediaPlayer)) {
+            throw new UnsupportedOperationException("next player 必须也是 OsExMediaPlayer");
+        }
+        // MediaPlayer自己会发MEDIA_INFO_STARTED_AS_NEXT
+        mMediaPlayer.setNextMediaPlayer(nextMediaPlayer == null ? null : ((OsExMediaPlayer) nextMediaPlayer).mMediaPlayer);
+    }
+
+    @Override
+    public List<String> setOptions(PlayerOptions options) {
+        List<String> unsupported = options.keys();
+        unsupported.remove(PlayerOptions.START_ON_PREPARED);
+        mStartOnPrepared = options.getStartOnPrepared() != null && options.getStartOnPrepared();
+        // MediaPlayer本身就是硬解
+        if (Boolean.TRUE.equals(options.getHardwareDecode())) unsupported.remove(PlayerOptions.HARDWARE_DECODE);
+        return unsupported;
+    }
+
+    @Override
+    public List<TrackInfo> getTrackInfo() {
+        List<TrackInfo> tracks = new ArrayList<>();
+        MediaPlayer.TrackInfo[] infos;
+        try {
+            infos = mMediaPlayer.getTrackInfo();
+        } catch (IllegalStateException e) {
+            // 还没有prepared
+            return tracks;
+        }
+        for (int i = 0; i < infos.length; i++) {
+            MediaPlayer.TrackInfo info = infos[i];
+            int trackType = info.getTrackType();
+            MediaFormat format = info.getFormat();
+            tracks.add(new TrackInfo(i, toTrackType(trackType),
+                    getInteger(format, MediaFormat.KEY_BIT_RATE),
+                    getInteger(format, MediaFormat.KEY_WIDTH),
+                    getInteger(format, MediaFormat.KEY_HEIGHT),
+                    format != null && format.containsKey(MediaFormat.KEY_MIME) ? format.getString(MediaFormat.KEY_MIME) : null,
+                    info.getLanguage(),
+                    mMediaPlayer.getSelectedTrack(trackType) == i));
+        }
+        return tracks;
+    }
+
+    private static int toTrackType(int trackType) {
+        switch (trackType) {
+            case MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_VIDEO:
+                return TrackInfo.TYPE_VIDEO;
+            case MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_AUDIO:
+                return TrackInfo.TYPE_AUDIO;
+            case MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_TIMEDTEXT:
+            case MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_SUBTITLE:
+                return TrackInfo.TYPE_TEXT;
+            default:
+                return TrackInfo.TYPE_UNKNOWN;
+        }
+    }
+
+    private static int getInteger(MediaFormat format, String key) {
+        return format != null && format.containsKey(key) ? format.getInteger(key) : TrackInfo.UNKNOWN;
+    }
+
+    /**
+     * MediaPlayer只能选音轨和字幕
+     */
+    @Override
+    public void selectTrack(int index) throws UnsupportedOperationException {
+        MediaPlayer.TrackInfo[] infos = mMediaPlayer.getTrackInfo();
+        if (index >= 0 && index < infos.length && infos[index].getTrackType() == MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_VIDEO) {
+            throw new UnsupportedOperationException("MediaPlayer 不能切换视频轨");
+        }
+        mMediaPlayer.selectTrack(index);
+    }
+
+    /**
+     * 只有字幕可以取消选择, 音轨没有自动选择可以恢复
+     */
+    @Override
+    public void clearTrackSelection(int type) throws UnsupportedOperationException {
+        if (type != TrackInfo.TYPE_TEXT) {
+            throw new UnsupportedOperationException("MediaPlayer 只能取消字幕选择");
+        }
+        int timedText = mMediaPlayer.getSelectedTrack(MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_TIMEDTEXT);
+        if (timedText >= 0) mMediaPlayer.deselectTrack(timedText);
+        int subtitle = mMediaPlayer.getSelectedTrack(MediaPlayer.TrackInfo.MEDIA_TRACK_TYPE_SUBTITLE);
+        if (subtitle >= 0) mMediaPlayer.deselectTrack(subtitle);
+    }
+
+    @Override
+    public void setTrackConstraints(TrackConstraints constraints) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MediaPlayer 不支持多码率选择");
     }
 
     @Override
@@ -155,6 +286,7 @@ public class OsExMediaPlayer implements ExMediaPlayer {
             mMediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
                 @Override
                 public void onPrepared(MediaPlayer mp) {
+                    if (mStartOnPrepared && !mTearingDown) mp.start();
                     listener.onPrepared(OsExMediaPlayer.this);
                 }
             });
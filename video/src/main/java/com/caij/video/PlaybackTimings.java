@@ -0,0 +1,99 @@
+package com.caij.video;
+
+/**
+ * Startup timestamps of one playback session of an {@link XMediaPlayer}, from
+ * {@code setDataSource} to the first rendered frame.
+ *
+ * <p>All timestamps are {@link android.os.SystemClock#elapsedRealtime()} values, or {@link #UNSET}
+ * if the phase has not happened. {@link #getDataSourceResolvedAt()} is only reported by engines that
+ * resolve the source before preparing it (Exo redirect probe, ijk open input).
+ */
+public class PlaybackTimings {
+
+    public static final long UNSET = -1;
+
+    public interface Listener {
+        /**
+         * Called once per session, when the first frame is rendered.
+         */
+        void onPlaybackTimings(XMediaPlayer player, PlaybackTimings timings);
+    }
+
+    private final String engine;
+    long dataSourceSetAt = UNSET;
+    long dataSourceResolvedAt = UNSET;
+    long prepareStartedAt = UNSET;
+    long preparedAt = UNSET;
+    long startCalledAt = UNSET;
+    long firstFrameAt = UNSET;
+
+    PlaybackTimings(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return the simple class name of the engine that played the session.
+     */
+    public String getEngine() {
+        return engine;
+    }
+
+    public long getDataSourceSetAt() {
+        return dataSourceSetAt;
+    }
+
+    public long getDataSourceResolvedAt() {
+        return dataSourceResolvedAt;
+    }
+
+    public long getPrepareStartedAt() {
+        return prepareStartedAt;
+    }
+
+    public long getPreparedAt() {
+        return preparedAt;
+    }
+
+    public long getStartCalledAt() {
+        return startCalledAt;
+    }
+
+    public long getFirstFrameAt() {
+        return firstFrameAt;
+    }
+
+    /**
+     * @return time from prepareAsync to the first frame, or {@link #UNSET}.
+     */
+    public long getTimeToFirstFrameMs() {
+        return between(prepareStartedAt, firstFrameAt);
+    }
+
+    /**
+     * @return time from prepareAsync to onPrepared, or {@link #UNSET}.
+     */
+    public long getPrepareDurationMs() {
+        return between(prepareStartedAt, preparedAt);
+    }
+
+    /**
+     * @return time from start (or onPrepared if start came first) to the first frame, or {@link #UNSET}.
+     */
+    public long getStartToFirstFrameMs() {
+        return between(Math.max(startCalledAt, preparedAt), firstFrameAt);
+    }
+
+    private static long between(long from, long to) {
+        return from == UNSET || to == UNSET ? UNSET : to - from;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaybackTimings{" + engine
+                + ", resolved=" + between(dataSourceSetAt, dataSourceResolvedAt)
+                + ", prepare=" + getPrepareDurationMs()
+                + ", startToFirstFrame=" + getStartToFirstFrameMs()
+                + ", firstFrame=" + getTimeToFirstFrameMs()
+                + "}";
+    }
+}
@@ -0,0 +1,134 @@
+package com.caij.video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Engine independent tuning knobs, mostly for startup latency. Every engine translates the options
+ * it understands into its own settings and reports the rest from
+ * {@link ExMediaPlayer#setOptions(PlayerOptions)}.
+ *
+ * <p>Only options that were set are applied; anything left unset keeps the engine default.
+ */
+public class PlayerOptions {
+
+    public static final String PROBE_SIZE = "probe_size";
+    public static final String ANALYZE_DURATION = "analyze_duration";
+    public static final String START_ON_PREPARED = "start_on_prepared";
+    public static final String MAX_BUFFER_SIZE = "max_buffer_size";
+    public static final String FRAME_DROP = "frame_drop";
+    public static final String RECONNECT = "reconnect";
+    public static final String HARDWARE_DECODE = "hardware_decode";
+
+    private Long probeSize;
+    private Long analyzeDurationMs;
+    private Boolean startOnPrepared;
+    private Integer maxBufferSize;
+    private Integer frameDrop;
+    private Boolean reconnect;
+    private Boolean hardwareDecode;
+
+    /**
+     * @param bytes how much input is read to detect the stream format.
+     */
+    public PlayerOptions setProbeSize(long bytes) {
+        probeSize = bytes;
+        return this;
+    }
+
+    /**
+     * @param ms how much media is analyzed to find stream parameters.
+     */
+    public PlayerOptions setAnalyzeDurationMs(long ms) {
+        analyzeDurationMs = ms;
+        return this;
+    }
+
+    /**
+     * @param start whether playback starts by itself once prepared.
+     */
+    public PlayerOptions setStartOnPrepared(boolean start) {
+        startOnPrepared = start;
+        return this;
+    }
+
+    /**
+     * @param bytes upper bound of buffered media in bytes.
+     */
+    public PlayerOptions setMaxBufferSize(int bytes) {
+        maxBufferSize = bytes;
+        return this;
+    }
+
+    /**
+     * @param frames how many late frames may be dropped to keep video in sync, 0 to never drop.
+     */
+    public PlayerOptions setFrameDrop(int frames) {
+        frameDrop = frames;
+        return this;
+    }
+
+    /**
+     * @param reconnect whether dropped network connections are reopened.
+     */
+    public PlayerOptions setReconnect(boolean reconnect) {
+        this.reconnect = reconnect;
+        return this;
+    }
+
+    /**
+     * @param hardwareDecode whether video is decoded with MediaCodec.
+     */
+    public PlayerOptions setHardwareDecode(boolean hardwareDecode) {
+        this.hardwareDecode = hardwareDecode;
+        return this;
+    }
+
+    public Long getProbeSize() {
+        return probeSize;
+    }
+
+    public Long getAnalyzeDurationMs() {
+        return analyzeDurationMs;
+    }
+
+    public Boolean getStartOnPrepared() {
+        return startOnPrepared;
+    }
+
+    public Integer getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    public Integer getFrameDrop() {
+        return frameDrop;
+    }
+
+    public Boolean getReconnect() {
+        return reconnect;
+    }
+
+    public Boolean getHardwareDecode() {
+        return hardwareDecode;
+    }
+
+    /**
+     * @return keys of the options that were set.
+     */
+    public List<String> keys() {
+        List<String> keys = new ArrayList<>();
+        if (probeSize != null) keys.add(PROBE_SIZE);
+        if (analyzeDurationMs != null) keys.add(ANALYZE_DURATION);
+        if (startOnPrepared != null) keys.add(START_ON_PREPARED);
+        if (maxBufferSize != null) keys.add(MAX_BUFFER_SIZE);
+        if (frameDrop != null) keys.add(FRAME_DROP);
+        if (reconnect != null) keys.add(RECONNECT);
+        if (hardwareDecode != null) keys.add(HARDWARE_DECODE);
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerOptions" + keys();
+    }
+}
@@ -0,0 +1,202 @@
+package com.caij.video;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Keeps a small number of idle players around so that feed items can reuse an engine instead of
+ * paying for a new {@link ExMediaPlayer} every time.
+ *
+ * <p>Players handed back with {@link #recycle(XMediaPlayer)} are detached from their surface and
+ * listeners right away and reset afterwards, see {@link XMediaPlayer#resetAsync}; they become
+ * available again once the reset is done. Idle players are released the same way once the pool is
+ * full or after they have been unused for the idle timeout. Use the pool on the main thread, the
+ * factory creates the engines there.
+ */
+public class PlayerPool {
+
+    private static final String TAG = "PlayerPool";
+
+    public static final int DEFAULT_MAX_SIZE = 3;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000L;
+
+    public interface Factory {
+        ExMediaPlayer create();
+    }
+
+    private final Factory mFactory;
+    private final int mMaxSize;
+    private final long mIdleTimeoutMs;
+    private final Handler mHandler;
+
+    private final ArrayDeque<IdlePlayer> mIdlePlayers = new ArrayDeque<>();
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+    private long mCreateTimeMs;
+
+    private final Runnable mEvictRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evictIdle();
+        }
+    };
+
+    public PlayerPool(Factory factory) {
+        this(factory, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    public PlayerPool(Factory factory, int maxSize, long idleTimeoutMs) {
+        if (factory == null) throw new IllegalArgumentException("factory == null");
+        if (maxSize < 0) throw new IllegalArgumentException("maxSize < 0");
+        mFactory = factory;
+        mMaxSize = maxSize;
+        mIdleTimeoutMs = idleTimeoutMs;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Returns an idle player if there is one, otherwise builds a new one with the factory.
+     */
+    public XMediaPlayer acquire() {
+        synchronized (this) {
+            IdlePlayer idlePlayer = mIdlePlayers.pollFirst();
+            if (idlePlayer != null) {
+                mHitCount++;
+                return idlePlayer.player;
+            }
+            mMissCount++;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        XMediaPlayer player = new XMediaPlayer(mFactory.create());
+        long cost = SystemClock.elapsedRealtime() - start;
+        synchronized (this) {
+            mCreateTimeMs += cost;
+        }
+        Log.d(TAG, "create player cost " + cost + "ms");
+        return player;
+    }
+
+    /**
+     * Hands a player back to the pool. The player is detached from its surface and listeners and
+     * reset; if the pool is already full it is released instead.
+     */
+    public void recycle(XMediaPlayer player) {
+        if (player == null) return;
+
+        player.setOptions(new PlayerOptions());
+        player.resetAsync(new XMediaPlayer.TeardownCallback() {
+            @Override
+            public void onTeardownComplete(XMediaPlayer player, long ownerThreadMs, long backgroundMs) {
+                addIdle(player);
+            }
+        });
+    }
+
+    private void addIdle(XMediaPlayer player) {
+        synchronized (this) {
+            if (mIdlePlayers.size() < mMaxSize) {
+                mIdlePlayers.addFirst(new IdlePlayer(player, SystemClock.elapsedRealtime()));
+                scheduleEviction();
+                return;
+            }
+            mEvictionCount++;
+        }
+        player.releaseAsync(null);
+    }
+
+    /**
+     * Releases every player that has been idle for longer than the idle timeout.
+     */
+    public void evictIdle() {
+        long now = SystemClock.elapsedRealtime();
+        ArrayDeque<XMediaPlayer> expired = new ArrayDeque<>();
+        synchronized (this) {
+            Iterator<IdlePlayer> iterator = mIdlePlayers.iterator();
+            while (iterator.hasNext()) {
+                IdlePlayer idlePlayer = iterator.next();
+                if (now - idlePlayer.idleSince >= mIdleTimeoutMs) {
+                    iterator.remove();
+                    expired.add(idlePlayer.player);
+                    mEvictionCount++;
+                }
+            }
+            scheduleEviction();
+        }
+        for (XMediaPlayer player : expired) {
+            player.releaseAsync(null);
+        }
+    }
+
+    /**
+     * Releases every idle player. The pool can still be used afterwards.
+     */
+    public void clear() {
+        ArrayDeque<IdlePlayer> idlePlayers;
+        synchronized (this) {
+            idlePlayers = new ArrayDeque<>(mIdlePlayers);
+            mEvictionCount += mIdlePlayers.size();
+            mIdlePlayers.clear();
+            mHandler.removeCallbacks(mEvictRunnable);
+        }
+        for (IdlePlayer idlePlayer : idlePlayers) {
+            idlePlayer.player.releaseAsync(null);
+        }
+    }
+
+    private void scheduleEviction() {
+        mHandler.removeCallbacks(mEvictRunnable);
+        IdlePlayer oldest = mIdlePlayers.peekLast();
+        if (oldest != null) {
+            long delay = oldest.idleSince + mIdleTimeoutMs - SystemClock.elapsedRealtime();
+            mHandler.postDelayed(mEvictRunnable, Math.max(0, delay));
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdlePlayers.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Total time spent building players on a miss, in milliseconds.
+     */
+    public synchronized long getCreateTimeMs() {
+        return mCreateTimeMs;
+    }
+
+    /**
+     * Estimated construction time saved by hits, based on the average creation cost.
+     */
+    public synchronized long getSavedTimeMs() {
+        return mMissCount == 0 ? 0 : mHitCount * mCreateTimeMs / mMissCount;
+    }
+
+    private static class IdlePlayer {
+        final XMediaPlayer player;
+        final long idleSince;
+
+        IdlePlayer(XMediaPlayer player, long idleSince) {
+            this.player = player;
+            this.idleSince = idleSince;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.caij.video;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prepares the next few items of an ordered list off-screen so that a bound view can start from an
+ * already prepared player.
+ *
+ * <p>Preloads are prepared paused and without a surface. {@link #obtain(int, ExMediaPlayer.OnPreparedListener)}
+ * hands the player over to the caller; preloads that fall out of the window are cancelled and
+ * recycled into the {@link PlayerPool}. Bytes already loaded by a cancelled preload are counted as
+ * wasted when the engine implements {@link BytesLoadedProvider}.
+ */
+public class PreloadManager {
+
+    private static final String TAG = "PreloadManager";
+
+    private final Context mAppContext;
+    private final PlayerPool mPlayerPool;
+    private final int mWindowSize;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private List<Uri> mUris = new ArrayList<>();
+    private final SparseArray<Preload> mPreloads = new SparseArray<>();
+    private int mCurrentPosition = -1;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mCancelCount;
+    private long mWastedBytes;
+
+    public PreloadManager(Context context, PlayerPool playerPool, int windowSize) {
+        if (windowSize < 0) throw new IllegalArgumentException("windowSize < 0");
+        mAppContext = context.getApplicationContext();
+        mPlayerPool = playerPool;
+        mWindowSize = windowSize;
+    }
+
+    /**
+     * Replaces the item list. Every running preload is cancelled.
+     */
+    public void setItems(List<Uri> uris) {
+        cancelAll();
+        mUris = uris == null ? new ArrayList<Uri>() : new ArrayList<>(uris);
+        mCurrentPosition = -1;
+    }
+
+    /**
+     * Moves the window to {@code position}: items after it up to the window size are preloaded,
+     * anything outside the window is cancelled. A preload of {@code position} itself is kept until
+     * it is {@link #obtain obtained}, so this can be called before or after obtain.
+     */
+    public void setCurrentPosition(int position) {
+        mCurrentPosition = position;
+
+        for (int i = mPreloads.size() - 1; i >= 0; i--) {
+            int preloadPosition = mPreloads.keyAt(i);
+            if (!isInWindow(preloadPosition)) {
+                Preload preload = mPreloads.valueAt(i);
+                mPreloads.removeAt(i);
+                cancel(preload);
+            }
+        }
+
+        int end = Math.min(mUris.size() - 1, position + mWindowSize);
+        for (int i = position + 1; i <= end; i++) {
+            if (i >= 0 && mPreloads.get(i) == null) {
+                startPreload(i);
+            }
+        }
+    }
+
+    /**
+     * Hands over the player for {@code position}. If it was preloaded the prepared (or still
+     * preparing) player is returned; otherwise a pooled player is prepared for it. The listener is
+     * called once the player is prepared, immediately if that already happened, with the engine as
+     * every other prepared listener of the player. If the data source cannot be set, the error is
+     * posted to the player's error listeners, so add them right after this returns.
+     *
+     * @throws IllegalArgumentException if {@code position} is outside the item list.
+     */
+    public XMediaPlayer obtain(int position, ExMediaPlayer.OnPreparedListener listener) {
+        if (position < 0 || position >= mUris.size()) {
+            throw new IllegalArgumentException("position " + position + " out of " + mUris.size());
+        }
+        Preload preload = mPreloads.get(position);
+        if (preload != null) {
+            mPreloads.remove(position);
+            mHitCount++;
+            preload.handOver(listener);
+            return preload.player;
+        }
+
+        mMissCount++;
+        XMediaPlayer player = mPlayerPool.acquire();
+        if (listener != null) player.addOnPreparedListener(listener);
+        try {
+            player.setDataSource(mAppContext, mUris.get(position));
+            player.prepareAsync();
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "obtain " + position + " failed " + e.getMessage());
+            postError(player, e instanceof IOException ? MediaPlayer.MEDIA_ERROR_IO : MediaPlayer.MEDIA_ERROR_UNKNOWN);
+        }
+        return player;
+    }
+
+    private void postError(final XMediaPlayer player, final int extra) {
+        // 调用方拿到player之后才能加错误监听
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                player.onError(player.getExMediaPlayer(), MediaPlayer.MEDIA_ERROR_UNKNOWN, extra);
+            }
+        });
+    }
+
+    /**
+     * Gives a player obtained from this manager back to the pool.
+     */
+    public void recycle(XMediaPlayer player) {
+        mPlayerPool.recycle(player);
+    }
+
+    public void release() {
+        mHandler.removeCallbacksAndMessages(null);
+        cancelAll();
+        mUris = new ArrayList<>();
+    }
+
+    private boolean isInWindow(int position) {
+        // 当前位置也在窗口里, 否则先调setCurrentPosition再obtain会把刚预加载好的取消掉
+        return position >= mCurrentPosition && position <= mCurrentPosition + mWindowSize
+                && position < mUris.size();
+    }
+
+    private void startPreload(int position) {
+        XMediaPlayer player = mPlayerPool.acquire();
+        Preload preload = new Preload(position, player);
+        player.setOptions(new PlayerOptions().setStartOnPrepared(false));
+        try {
+            player.setDataSource(mAppContext, mUris.get(position));
+            player.prepareAsync();
+            mPreloads.put(position, preload);
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "preload " + position + " failed " + e.getMessage());
+            preload.detach();
+            mPlayerPool.recycle(player);
+        }
+    }
+
+    private void cancel(Preload preload) {
+        mCancelCount++;
+        ExMediaPlayer engine = preload.player.getExMediaPlayer();
+        if (engine instanceof BytesLoadedProvider) {
+            mWastedBytes += ((BytesLoadedProvider) engine).getBytesLoaded();
+        }
+        preload.detach();
+        mPlayerPool.recycle(preload.player);
+    }
+
+    private void cancelAll() {
+        for (int i = mPreloads.size() - 1; i >= 0; i--) {
+            cancel(mPreloads.valueAt(i));
+        }
+        mPreloads.clear();
+    }
+
+    public long getHitCount() {
+        return mHitCount;
+    }
+
+    public long getMissCount() {
+        return mMissCount;
+    }
+
+    public float getHitRate() {
+        long total = mHitCount + mMissCount;
+        return total == 0 ? 0 : mHitCount * 1f / total;
+    }
+
+    public long getCancelCount() {
+        return mCancelCount;
+    }
+
+    public long getWastedBytes() {
+        return mWastedBytes;
+    }
+
+    private class Preload implements ExMediaPlayer.OnPreparedListener, ExMediaPlayer.OnErrorListener {
+
+        final int position;
+        final XMediaPlayer player;
+        boolean prepared;
+
+        Preload(int position, XMediaPlayer player) {
+            this.position = position;
+            this.player = player;
+            player.addOnPreparedListener(this);
+            player.addOnErrorListener(this);
+        }
+
+        void handOver(ExMediaPlayer.OnPreparedListener listener) {
+            detach();
+            // 预加载的不自动播放只对这次prepare有效, 之后的prepare用默认配置
+            player.setOptions(new PlayerOptions());
+            if (listener == null) return;
+            if (prepared) {
+                listener.onPrepared(player.getExMediaPlayer());
+            } else {
+                player.addOnPreparedListener(listener);
+            }
+        }
+
+        void detach() {
+            player.removeOnPreparedListener(this);
+            player.removeOnErrorListener(this);
+        }
+
+        @Override
+        public void onPrepared(ExMediaPlayer mp) {
+            prepared = true;
+        }
+
+        @Override
+        public boolean onError(ExMediaPlayer mp, int what, int extra) {
+            Log.w(TAG, "preload " + position + " error [" + what + "," + extra + "]");
+            // 不要在引擎的错误回调里reset播放器
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPreloads.get(position) == Preload.this) {
+                        mPreloads.remove(position);
+                        cancel(Preload.this);
+                    }
+                }
+            });
+            return true;
+        }
+    }
+}
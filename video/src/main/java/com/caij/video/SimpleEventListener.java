@@ -0,0 +1,42 @@
+package com.caij.video;
+
+/**
+ * {@link XMediaPlayer.EventListener} with empty callbacks, override only what you need.
+ */
+public class SimpleEventListener implements XMediaPlayer.EventListener {
+
+    @Override
+    public void onPrepared(ExMediaPlayer mp) {
+
+    }
+
+    @Override
+    public void onCompletion(ExMediaPlayer mp) {
+
+    }
+
+    @Override
+    public void onBufferingUpdate(ExMediaPlayer mp, int percent) {
+
+    }
+
+    @Override
+    public void onSeekComplete(ExMediaPlayer mp) {
+
+    }
+
+    @Override
+    public void onVideoSizeChanged(ExMediaPlayer mp, int width, int height) {
+
+    }
+
+    @Override
+    public boolean onError(ExMediaPlayer mp, int what, int extra) {
+        return false;
+    }
+
+    @Override
+    public boolean onInfo(ExMediaPlayer mp, int what, int extra) {
+        return false;
+    }
+}
@@ -3,6 +3,7 @@ package com.caij.video;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.SurfaceView;
@@ -16,6 +17,16 @@ import java.lang.annotation.RetentionPolicy;
 
 import androidx.annotation.IntDef;
 
+/**
+ * Video view with a shutter that hides the surface until the first frame.
+ *
+ * <p>With a TextureView, the fit, zoom and fill modes scale the video with a transform matrix and
+ * the view keeps the size given by its parent, so a video size change needs no layout pass. In fit
+ * mode this leaves the letterbox bars inside the view: the shutter, the background and overlays
+ * added as children cover the whole frame, not only the video. Call
+ * {@link #setResizeWithTransform(boolean)} with false (or set {@code resize_with_transform}) to
+ * shrink the view to the video instead, as a SurfaceView always does.
+ */
 public class SimpleVideoView extends FrameLayout {
 
 
@@ -64,6 +75,7 @@ public class SimpleVideoView extends FrameLayout {
 
     private float videoAspectRatio;
     private @ResizeMode int resizeMode;
+    private boolean resizeWithTransform = true;
 
 
     private static final int SURFACE_TYPE_SURFACE_VIEW = 1;
@@ -73,6 +85,10 @@ public class SimpleVideoView extends FrameLayout {
     private View surfaceView;
     private View shutterView;
 
+    private final Matrix transformMatrix = new Matrix();
+    private int measureCount;
+    private int layoutCount;
+
 
     public SimpleVideoView(Context context) {
         this(context, null);
@@ -93,6 +109,7 @@ public class SimpleVideoView extends FrameLayout {
                 surfaceType = a.getInt(R.styleable.SimpleVideoView_surface_type, surfaceType);
                 resizeMode = a.getInt(R.styleable.SimpleVideoView_resize_mode, RESIZE_MODE_FIT);
                 shutterColor = a.getColor(R.styleable.SimpleVideoView_shutter_background_color, Color.parseColor("#000000"));
+                resizeWithTransform = a.getBoolean(R.styleable.SimpleVideoView_resize_with_transform, true);
             } finally {
                 a.recycle();
             }
@@ -127,8 +144,51 @@ public class SimpleVideoView extends FrameLayout {
     public void setAspectRatio(float widthHeightRatio) {
         if (this.videoAspectRatio != widthHeightRatio) {
             this.videoAspectRatio = widthHeightRatio;
-            requestLayout();
+            if (isTransformMode(resizeMode)) {
+                updateTextureTransform();
+            } else {
+                requestLayout();
+            }
+        }
+    }
+
+    /**
+     * TextureView的fit/zoom/fill用矩阵缩放内容, view本身大小不变, 不需要重新布局
+     */
+    private boolean isTransformMode(int resizeMode) {
+        return resizeWithTransform && surfaceView instanceof TextureView
+                && resizeMode != RESIZE_MODE_FIXED_WIDTH && resizeMode != RESIZE_MODE_FIXED_HEIGHT;
+    }
+
+    private void updateTextureTransform() {
+        if (!(surfaceView instanceof TextureView)) return;
+        TextureView textureView = (TextureView) surfaceView;
+        int width = textureView.getWidth();
+        int height = textureView.getHeight();
+        transformMatrix.reset();
+        if (isTransformMode(resizeMode) && videoAspectRatio > 0 && width > 0 && height > 0) {
+            // TextureView默认把画面拉伸到整个view, 这里按比例缩回去
+            float aspectDeformation = videoAspectRatio / ((float) width / height) - 1;
+            if (Math.abs(aspectDeformation) > MAX_ASPECT_RATIO_DEFORMATION_FRACTION) {
+                float scaleX = 1;
+                float scaleY = 1;
+                if (resizeMode == RESIZE_MODE_FIT) {
+                    if (aspectDeformation > 0) {
+                        scaleY = width / videoAspectRatio / height;
+                    } else {
+                        scaleX = height * videoAspectRatio / width;
+                    }
+                } else if (resizeMode == RESIZE_MODE_ZOOM) {
+                    if (aspectDeformation > 0) {
+                        scaleX = height * videoAspectRatio / width;
+                    } else {
+                        scaleY = width / videoAspectRatio / height;
+                    }
+                }
+                transformMatrix.setScale(scaleX, scaleY, width / 2f, height / 2f);
+            }
         }
+        textureView.setTransform(transformMatrix);
     }
 
     /**
@@ -146,16 +206,53 @@ public class SimpleVideoView extends FrameLayout {
      */
     public void setResizeMode(@ResizeMode int resizeMode) {
         if (this.resizeMode != resizeMode) {
+            boolean relayout = !isTransformMode(this.resizeMode) || !isTransformMode(resizeMode);
             this.resizeMode = resizeMode;
+            if (relayout) {
+                requestLayout();
+            } else {
+                updateTextureTransform();
+            }
+        }
+    }
+
+    /**
+     * @param resizeWithTransform false to resize a TextureView by measuring like a SurfaceView, see
+     *                            the class doc. Default true.
+     */
+    public void setResizeWithTransform(boolean resizeWithTransform) {
+        if (this.resizeWithTransform != resizeWithTransform) {
+            this.resizeWithTransform = resizeWithTransform;
+            // 切回测量时要清掉之前的矩阵
+            updateTextureTransform();
             requestLayout();
         }
     }
 
+    public boolean isResizeWithTransform() {
+        return resizeWithTransform;
+    }
+
+    /**
+     * @return how many times this view was measured, to check how often video size changes relayout.
+     */
+    public int getMeasureCount() {
+        return measureCount;
+    }
+
+    /**
+     * @return how many times this view was laid out.
+     */
+    public int getLayoutCount() {
+        return layoutCount;
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        measureCount++;
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        if (videoAspectRatio <= 0) {
-            // Aspect ratio not set.
+        if (videoAspectRatio <= 0 || isTransformMode(resizeMode)) {
+            // Aspect ratio not set, or applied by the texture transform.
             return;
         }
 
@@ -198,6 +295,13 @@ public class SimpleVideoView extends FrameLayout {
                 MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
     }
 
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        layoutCount++;
+        super.onLayout(changed, left, top, right, bottom);
+        if (surfaceView instanceof TextureView) updateTextureTransform();
+    }
+
 
 
     @Override
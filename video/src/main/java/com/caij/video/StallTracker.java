@@ -0,0 +1,195 @@
+package com.caij.video;
+
+/**
+ * Rebuffering metrics of one playback session, driven by {@link XMediaPlayer} from
+ * {@link ExMediaPlayer#MEDIA_INFO_BUFFERING_START} / {@link ExMediaPlayer#MEDIA_INFO_BUFFERING_END}
+ * and the play, pause and seek calls, so it works the same for every engine.
+ *
+ * <p>Buffering before the first frame is startup, not a stall, and is left to
+ * {@link PlaybackTimings}. A stall that starts while a seek is pending, or shortly after it
+ * completed, is counted as a seek stall.
+ */
+public class StallTracker {
+
+    private static final long SEEK_STALL_WINDOW_MS = 1000;
+
+    public interface Listener {
+        /**
+         * Called when the session ends: on reset, release or a new data source.
+         */
+        void onStallSessionEnd(XMediaPlayer player, Snapshot snapshot);
+    }
+
+    public static class Snapshot {
+        public final int stallCount;
+        public final int seekStallCount;
+        public final long totalStallMs;
+        public final long seekStallMs;
+        public final long longestStallMs;
+        public final long playingMs;
+
+        Snapshot(int stallCount, int seekStallCount, long totalStallMs, long seekStallMs,
+                 long longestStallMs, long playingMs) {
+            this.stallCount = stallCount;
+            this.seekStallCount = seekStallCount;
+            this.totalStallMs = totalStallMs;
+            this.seekStallMs = seekStallMs;
+            this.longestStallMs = longestStallMs;
+            this.playingMs = playingMs;
+        }
+
+        /**
+         * @return stalled time divided by playing time, 0 if nothing played yet.
+         */
+        public float getRebufferRatio() {
+            return playingMs <= 0 ? 0 : (float) totalStallMs / playingMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Stalls{count=" + stallCount + ", seekCount=" + seekStallCount
+                    + ", total=" + totalStallMs + ", seek=" + seekStallMs
+                    + ", longest=" + longestStallMs + ", playing=" + playingMs
+                    + ", ratio=" + getRebufferRatio() + "}";
+        }
+    }
+
+    private final Clock mClock;
+
+    private boolean mFirstFrameRendered;
+    private boolean mPlaying;
+    private long mPlayingSince;
+    private long mPlayingMs;
+
+    private boolean mSeekPending;
+    private long mLastSeekCompleteAt = -1;
+
+    private boolean mStalled;
+    private boolean mSeekStall;
+    private long mStallStartAt;
+
+    private int mStallCount;
+    private int mSeekStallCount;
+    private long mTotalStallMs;
+    private long mSeekStallMs;
+    private long mLongestStallMs;
+
+    StallTracker() {
+        this(Clock.SYSTEM);
+    }
+
+    StallTracker(Clock clock) {
+        mClock = clock;
+    }
+
+    boolean hasSession() {
+        return mFirstFrameRendered;
+    }
+
+    void onFirstFrame(boolean playing) {
+        mFirstFrameRendered = true;
+        // 首帧之前的时间算启动耗时, 从这里开始计播放时长
+        mPlaying |= playing;
+        mPlayingSince = mClock.elapsedRealtime();
+    }
+
+    void onPlay() {
+        if (mPlaying) return;
+        mPlaying = true;
+        if (!mStalled) mPlayingSince = mClock.elapsedRealtime();
+    }
+
+    void onPause() {
+        if (!mPlaying) return;
+        long now = mClock.elapsedRealtime();
+        if (!mFirstFrameRendered) {
+            mPlaying = false;
+            return;
+        }
+        if (mStalled) {
+            // 暂停后的缓冲不算卡顿
+            endStall(now);
+        } else {
+            mPlayingMs += now - mPlayingSince;
+        }
+        mPlaying = false;
+    }
+
+    void onSeek() {
+        mSeekPending = true;
+    }
+
+    void onSeekComplete() {
+        mSeekPending = false;
+        mLastSeekCompleteAt = mClock.elapsedRealtime();
+    }
+
+    void onBufferingStart() {
+        if (!mFirstFrameRendered || !mPlaying || mStalled) return;
+        long now = mClock.elapsedRealtime();
+        mPlayingMs += now - mPlayingSince;
+        mStalled = true;
+        mStallStartAt = now;
+        mSeekStall = mSeekPending
+                || (mLastSeekCompleteAt >= 0 && now - mLastSeekCompleteAt <= SEEK_STALL_WINDOW_MS);
+    }
+
+    void onBufferingEnd() {
+        if (!mStalled) return;
+        long now = mClock.elapsedRealtime();
+        endStall(now);
+        if (mPlaying) mPlayingSince = now;
+    }
+
+    private void endStall(long now) {
+        long duration = now - mStallStartAt;
+        mStalled = false;
+        mStallCount++;
+        mTotalStallMs += duration;
+        mLongestStallMs = Math.max(mLongestStallMs, duration);
+        if (mSeekStall) {
+            mSeekStallCount++;
+            mSeekStallMs += duration;
+        }
+    }
+
+    /**
+     * @return metrics so far, an ongoing stall or playing period included.
+     */
+    public Snapshot snapshot() {
+        long now = mClock.elapsedRealtime();
+        int stallCount = mStallCount;
+        int seekStallCount = mSeekStallCount;
+        long totalStallMs = mTotalStallMs;
+        long seekStallMs = mSeekStallMs;
+        long longestStallMs = mLongestStallMs;
+        long playingMs = mPlayingMs;
+        if (mStalled) {
+            long duration = now - mStallStartAt;
+            stallCount++;
+            totalStallMs += duration;
+            longestStallMs = Math.max(longestStallMs, duration);
+            if (mSeekStall) {
+                seekStallCount++;
+                seekStallMs += duration;
+            }
+        } else if (mPlaying && mFirstFrameRendered) {
+            playingMs += now - mPlayingSince;
+        }
+        return new Snapshot(stallCount, seekStallCount, totalStallMs, seekStallMs, longestStallMs, playingMs);
+    }
+
+    void reset() {
+        mFirstFrameRendered = false;
+        mPlaying = false;
+        mPlayingMs = 0;
+        mSeekPending = false;
+        mLastSeekCompleteAt = -1;
+        mStalled = false;
+        mStallCount = 0;
+        mSeekStallCount = 0;
+        mTotalStallMs = 0;
+        mSeekStallMs = 0;
+        mLongestStallMs = 0;
+    }
+}
@@ -0,0 +1,418 @@
+package com.caij.video;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seek bar previews from a WebVTT thumbnail track whose cues point at sprite sheets
+ * ({@code sprite.jpg#xywh=x,y,w,h}).
+ *
+ * <p>Each sprite is downloaded and decoded once on a background thread and kept in an LRU cache
+ * bounded in bytes; evicted sprites are reused as decode targets. {@link #getThumbnail(long, Bitmap)}
+ * only crops from memory, so it is cheap enough to call for every scrub position, and prefetches the
+ * sprites around the position. A sprite that failed to load is not requested again for a few
+ * seconds. All methods must be called on the main thread.
+ */
+public class ThumbnailLoader {
+
+    private static final String TAG = "ThumbnailLoader";
+
+    private static final int MAX_THREADS = 2;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final int PREFETCH_SPRITES = 1;
+    private static final int MAX_REUSABLE_BITMAPS = 2;
+    // 失败的sprite拖动时不要每帧都重试
+    private static final long FAILED_RETRY_DELAY_MS = 10 * 1000;
+    // vtt和sprite都不该这么大, 防止错误的地址把内存撑爆
+    private static final int MAX_DOWNLOAD_BYTES = 8 * 1024 * 1024;
+
+    private static ThreadPoolExecutor sExecutor;
+
+    public interface Listener {
+        /**
+         * Called when the track is parsed or a sprite finished loading, thumbnails that were
+         * missing may be available now.
+         */
+        void onThumbnailsAvailable();
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> mSprites;
+    private final ArrayDeque<Bitmap> mReusableBitmaps = new ArrayDeque<>();
+    // 取出和绘制sprite时持有, 保证被复用的bitmap不会正在绘制
+    private final Object mSpriteLock = new Object();
+
+    private final Set<String> mLoadingSprites = new HashSet<>();
+    private final Map<String, Long> mFailedSprites = new HashMap<>();
+    private List<Cue> mCues = Collections.emptyList();
+    private List<String> mSpriteUrls = Collections.emptyList();
+    private int mGeneration;
+    private Listener mListener;
+
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
+
+    /**
+     * @param maxCacheBytes memory budget for decoded sprites.
+     */
+    public ThumbnailLoader(int maxCacheBytes) {
+        mSprites = new LruCache<String, Bitmap>(maxCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted && oldValue.isMutable()) {
+                    synchronized (mReusableBitmaps) {
+                        if (mReusableBitmaps.size() < MAX_REUSABLE_BITMAPS) mReusableBitmaps.add(oldValue);
+                    }
+                }
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Loads the thumbnail track at {@code vttUrl}, replacing the previous one.
+     */
+    public void load(final String vttUrl) {
+        final int generation = ++mGeneration;
+        mCues = Collections.emptyList();
+        mSpriteUrls = Collections.emptyList();
+        mLoadingSprites.clear();
+        mFailedSprites.clear();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Cue> cues;
+                try {
+                    cues = parse(vttUrl, new String(download(vttUrl), "UTF-8"));
+                } catch (IOException e) {
+                    Log.w(TAG, "load " + vttUrl + " failed " + e.getMessage());
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) return;
+                        mCues = cues;
+                        List<String> spriteUrls = new ArrayList<>();
+                        for (Cue cue : cues) {
+                            if (spriteUrls.isEmpty() || !spriteUrls.get(spriteUrls.size() - 1).equals(cue.spriteUrl)) {
+                                spriteUrls.add(cue.spriteUrl);
+                            }
+                        }
+                        mSpriteUrls = spriteUrls;
+                        if (mListener != null) mListener.onThumbnailsAvailable();
+                    }
+                });
+            }
+        });
+    }
+
+    public boolean hasThumbnails() {
+        return !mCues.isEmpty();
+    }
+
+    /**
+     * Draws the thumbnail for {@code positionMs} into {@code dst}, scaled to its size.
+     *
+     * @return false if there is no thumbnail for the position or its sprite is still loading.
+     */
+    public boolean getThumbnail(long positionMs, Bitmap dst) {
+        Cue cue = findCue(positionMs);
+        if (cue == null) return false;
+        prefetch(cue);
+        synchronized (mSpriteLock) {
+            Bitmap sprite = mSprites.get(cue.spriteUrl);
+            if (sprite == null) return false;
+            Rect src = null;
+            if (cue.hasRegion()) {
+                src = mSrcRect;
+                src.set(cue.x, cue.y, cue.x + cue.width, cue.y + cue.height);
+            }
+            mDstRect.set(0, 0, dst.getWidth(), dst.getHeight());
+            mCanvas.setBitmap(dst);
+            mCanvas.drawBitmap(sprite, src, mDstRect, mPaint);
+            mCanvas.setBitmap(null);
+        }
+        return true;
+    }
+
+    /**
+     * Starts loading the sprite for {@code positionMs} and its neighbours.
+     */
+    public void prefetch(long positionMs) {
+        Cue cue = findCue(positionMs);
+        if (cue != null) prefetch(cue);
+    }
+
+    /**
+     * Drops the track and every cached sprite.
+     */
+    public void release() {
+        mGeneration++;
+        mCues = Collections.emptyList();
+        mSpriteUrls = Collections.emptyList();
+        mLoadingSprites.clear();
+        mFailedSprites.clear();
+        synchronized (mSpriteLock) {
+            mSprites.evictAll();
+        }
+        synchronized (mReusableBitmaps) {
+            mReusableBitmaps.clear();
+        }
+    }
+
+    private Cue findCue(long positionMs) {
+        List<Cue> cues = mCues;
+        int low = 0;
+        int high = cues.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Cue cue = cues.get(mid);
+            if (positionMs < cue.startMs) {
+                high = mid - 1;
+            } else if (positionMs >= cue.endMs) {
+                low = mid + 1;
+            } else {
+                return cue;
+            }
+        }
+        return null;
+    }
+
+    private void prefetch(Cue cue) {
+        int index = mSpriteUrls.indexOf(cue.spriteUrl);
+        if (index < 0) return;
+        loadSprite(mSpriteUrls.get(index));
+        for (int i = 1; i <= PREFETCH_SPRITES; i++) {
+            if (index + i < mSpriteUrls.size()) loadSprite(mSpriteUrls.get(index + i));
+            if (index - i >= 0) loadSprite(mSpriteUrls.get(index - i));
+        }
+    }
+
+    private void loadSprite(final String url) {
+        if (mSprites.get(url) != null || mLoadingSprites.contains(url)) return;
+        Long failedAt = mFailedSprites.get(url);
+        if (failedAt != null && SystemClock.elapsedRealtime() - failedAt < FAILED_RETRY_DELAY_MS) return;
+        mLoadingSprites.add(url);
+        final int generation = mGeneration;
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                try {
+                    bitmap = decode(download(url));
+                } catch (IOException e) {
+                    Log.w(TAG, "load sprite " + url + " failed " + e.getMessage());
+                }
+                final Bitmap sprite = bitmap;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) return;
+                        mLoadingSprites.remove(url);
+                        if (sprite == null) {
+                            mFailedSprites.put(url, SystemClock.elapsedRealtime());
+                            return;
+                        }
+                        mFailedSprites.remove(url);
+                        synchronized (mSpriteLock) {
+                            mSprites.put(url, sprite);
+                        }
+                        if (mListener != null) mListener.onThumbnailsAvailable();
+                    }
+                });
+            }
+        });
+    }
+
+    private Bitmap decode(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        Bitmap reusable;
+        synchronized (mReusableBitmaps) {
+            reusable = mReusableBitmaps.poll();
+        }
+        if (reusable != null) {
+            options.inBitmap = reusable;
+            try {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            } catch (IllegalArgumentException e) {
+                // 复用的bitmap太小
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    private static byte[] download(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+        InputStream in = null;
+        try {
+            if (conn.getResponseCode() / 100 != 2) {
+                throw new IOException("response " + conn.getResponseCode());
+            }
+            if (conn.getContentLength() > MAX_DOWNLOAD_BYTES) {
+                throw new IOException("too large " + conn.getContentLength());
+            }
+            in = conn.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > MAX_DOWNLOAD_BYTES) throw new IOException("too large");
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+            conn.disconnect();
+        }
+    }
+
+    static List<Cue> parse(String vttUrl, String text) throws IOException {
+        List<Cue> cues = new ArrayList<>();
+        URL base = new URL(vttUrl);
+        String[] lines = text.split("\r\n|\n|\r");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int arrow = line.indexOf("-->");
+            if (arrow < 0) continue;
+            long startMs = parseTime(line.substring(0, arrow));
+            String end = line.substring(arrow + 3).trim();
+            int settings = end.indexOf(' ');
+            long endMs = parseTime(settings < 0 ? end : end.substring(0, settings));
+            if (startMs < 0 || endMs < 0 || i + 1 >= lines.length) continue;
+            String payload = lines[++i].trim();
+            if (payload.isEmpty()) continue;
+
+            int[] xywh = null;
+            int hash = payload.indexOf('#');
+            if (hash >= 0) {
+                xywh = parseXywh(payload.substring(hash + 1));
+                payload = payload.substring(0, hash);
+            }
+            cues.add(new Cue(startMs, endMs, new URL(base, payload).toString(), xywh));
+        }
+        return cues;
+    }
+
+    /**
+     * @return milliseconds of {@code hh:mm:ss.ttt} or {@code mm:ss.ttt}, -1 if malformed.
+     */
+    private static long parseTime(String time) {
+        String[] parts = time.trim().split(":");
+        try {
+            long ms = 0;
+            for (int i = 0; i < parts.length - 1; i++) {
+                ms = ms * 60 + Long.parseLong(parts[i]);
+            }
+            return ms * 60 * 1000 + Math.round(Double.parseDouble(parts[parts.length - 1]) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return {x, y, width, height} of a {@code xywh=} media fragment, null if malformed.
+     */
+    private static int[] parseXywh(String fragment) {
+        if (!fragment.startsWith("xywh=")) return null;
+        String value = fragment.substring(5);
+        if (value.startsWith("pixel:")) value = value.substring(6);
+        String[] parts = value.split(",");
+        if (parts.length != 4) return null;
+        try {
+            int x = Integer.parseInt(parts[0].trim());
+            int y = Integer.parseInt(parts[1].trim());
+            int w = Integer.parseInt(parts[2].trim());
+            int h = Integer.parseInt(parts[3].trim());
+            return new int[]{x, y, w, h};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    60 * 1000L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    static class Cue {
+        final long startMs;
+        final long endMs;
+        final String spriteUrl;
+        /**
+         * Region of the sprite, all 0 for the whole image.
+         */
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        Cue(long startMs, long endMs, String spriteUrl, int[] xywh) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.spriteUrl = spriteUrl;
+            if (xywh != null) {
+                x = xywh[0];
+                y = xywh[1];
+                width = xywh[2];
+                height = xywh[3];
+            } else {
+                x = y = width = height = 0;
+            }
+        }
+
+        boolean hasRegion() {
+            return width > 0 && height > 0;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.caij.video;
+
+/**
+ * Limits for the automatic video track choice, e.g. for a data saver or a cellular mode. Unset
+ * limits are {@link Integer#MAX_VALUE}.
+ */
+public class TrackConstraints {
+
+    private int mMaxVideoBitrate = Integer.MAX_VALUE;
+    private int mMaxVideoWidth = Integer.MAX_VALUE;
+    private int mMaxVideoHeight = Integer.MAX_VALUE;
+
+    /**
+     * @param bitsPerSecond highest video bitrate to pick.
+     */
+    public TrackConstraints setMaxVideoBitrate(int bitsPerSecond) {
+        mMaxVideoBitrate = bitsPerSecond;
+        return this;
+    }
+
+    public TrackConstraints setMaxVideoSize(int width, int height) {
+        mMaxVideoWidth = width;
+        mMaxVideoHeight = height;
+        return this;
+    }
+
+    public int getMaxVideoBitrate() {
+        return mMaxVideoBitrate;
+    }
+
+    public int getMaxVideoWidth() {
+        return mMaxVideoWidth;
+    }
+
+    public int getMaxVideoHeight() {
+        return mMaxVideoHeight;
+    }
+
+    /**
+     * @return whether a track of these properties is allowed, unknown values are.
+     */
+    public boolean allows(int bitrate, int width, int height) {
+        return (bitrate <= 0 || bitrate <= mMaxVideoBitrate)
+                && (width <= 0 || width <= mMaxVideoWidth)
+                && (height <= 0 || height <= mMaxVideoHeight);
+    }
+
+    @Override
+    public String toString() {
+        return "TrackConstraints{bitrate=" + mMaxVideoBitrate + ", size=" + mMaxVideoWidth + "x" + mMaxVideoHeight + "}";
+    }
+}
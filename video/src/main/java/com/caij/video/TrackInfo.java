@@ -0,0 +1,56 @@
+package com.caij.video;
+
+/**
+ * One video, audio or text rendition as reported by {@link ExMediaPlayer#getTrackInfo()}, the same
+ * for every engine. Values the engine does not know are {@link #UNKNOWN} or null.
+ */
+public class TrackInfo {
+
+    public static final int UNKNOWN = -1;
+
+    public static final int TYPE_UNKNOWN = 0;
+    public static final int TYPE_VIDEO = 1;
+    public static final int TYPE_AUDIO = 2;
+    public static final int TYPE_TEXT = 3;
+
+    /**
+     * Engine specific id, only valid for {@link ExMediaPlayer#selectTrack(int)} of the same player
+     * and data source.
+     */
+    public final int index;
+    public final int type;
+    /**
+     * bits per second
+     */
+    public final int bitrate;
+    public final int width;
+    public final int height;
+    /**
+     * codec name or mime type, whatever the engine reports.
+     */
+    public final String codec;
+    public final String language;
+    /**
+     * whether it is being played now.
+     */
+    public final boolean selected;
+
+    public TrackInfo(int index, int type, int bitrate, int width, int height, String codec,
+                     String language, boolean selected) {
+        this.index = index;
+        this.type = type;
+        this.bitrate = bitrate;
+        this.width = width;
+        this.height = height;
+        this.codec = codec;
+        this.language = language;
+        this.selected = selected;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackInfo{" + index + ", type=" + type + ", bitrate=" + bitrate
+                + ", " + width + "x" + height + ", codec=" + codec + ", language=" + language
+                + (selected ? ", selected" : "") + "}";
+    }
+}
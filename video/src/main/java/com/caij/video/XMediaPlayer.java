@@ -3,16 +3,22 @@ package com.caij.video;
 import android.content.Context;
 import android.graphics.SurfaceTexture;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.TextureView;
+import android.view.View;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener, ExMediaPlayer.OnPreparedListener,
@@ -20,7 +26,18 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
         ExMediaPlayer.OnVideoSizeChangedListener, ExMediaPlayer.OnErrorListener {
 
     private static final String TAG = "XMediaPlayer";
+
+    private static final int MAX_CONCURRENT_TEARDOWNS = 2;
+    // 引擎没有回调seek完成时, 超过这个时间就不再等
+    private static final long SEEK_IN_FLIGHT_TIMEOUT_MS = 1000;
+    // 用引擎自己的seekTo(int), 不指定mode
+    private static final int SEEK_DEFAULT = -1;
+    public static final long DEFAULT_DETACHED_SURFACE_TIMEOUT_MS = 5000;
+    private static ThreadPoolExecutor sTeardownExecutor;
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
     private ExMediaPlayer mExMediaPlayer;
+    // 创建引擎的线程, 引擎不是线程安全的
+    private final Handler mEngineHandler;
     private TextureView textureView;
     private SurfaceHolder surfaceHolder;
     private ComponentListener componentListener;
@@ -28,16 +45,121 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
     private Surface mSurface;
     private boolean ownsSurface;
 
-    private List<OnInfoListener> infoListeners = new ArrayList<>();
-    private List<ExMediaPlayer.OnPreparedListener> onPreparedListeners = new ArrayList<>();
-    private List<ExMediaPlayer.OnSeekCompleteListener> onSeekCompleteListeners = new ArrayList<>();
-    private List<ExMediaPlayer.OnBufferingUpdateListener> onBufferingUpdateListeners = new ArrayList<>();
-    private List<ExMediaPlayer.OnCompletionListener> onCompletionListeners = new ArrayList<>();
-    private List<ExMediaPlayer.OnVideoSizeChangedListener> onVideoSizeChangedListeners = new ArrayList<>();
-    private List<ExMediaPlayer.OnErrorListener> onErrorListeners = new ArrayList<>();
+    // TextureView detach后保留SurfaceTexture, 重新attach时接回去, 解码器不用重建surface
+    private SurfaceTexture mDetachedTexture;
+    private long mDetachedSurfaceTimeoutMs = DEFAULT_DETACHED_SURFACE_TIMEOUT_MS;
+    private final Runnable mReleaseDetachedTexture = new Runnable() {
+        @Override
+        public void run() {
+            if (mDetachedTexture == null) return;
+            Log.d(TAG, "detached surface timeout");
+            setVideoSurfaceInternal(null, true);
+            releaseDetachedTexture();
+        }
+    };
+
+    public static final int EVENT_PREPARED = 1;
+    public static final int EVENT_COMPLETION = 1 << 1;
+    public static final int EVENT_BUFFERING_UPDATE = 1 << 2;
+    public static final int EVENT_SEEK_COMPLETE = 1 << 3;
+    public static final int EVENT_VIDEO_SIZE_CHANGED = 1 << 4;
+    public static final int EVENT_ERROR = 1 << 5;
+    public static final int EVENT_INFO = 1 << 6;
+    public static final int EVENT_ALL = EVENT_PREPARED | EVENT_COMPLETION | EVENT_BUFFERING_UPDATE
+            | EVENT_SEEK_COMPLETE | EVENT_VIDEO_SIZE_CHANGED | EVENT_ERROR | EVENT_INFO;
+
+    public interface TeardownCallback {
+        /**
+         * Called on the main thread once the engine is reset or released.
+         *
+         * @param ownerThreadMs total time the teardown took on the thread that owns the engine: the
+         *                      {@code resetAsync} / {@code releaseAsync} call itself and, for engines
+         *                      without {@link BackgroundTeardown}, the deferred reset or release.
+         * @param backgroundMs  time the engine took to reset or release on a background thread, 0 if
+         *                      it had to stay on its own thread.
+         */
+        void onTeardownComplete(XMediaPlayer player, long ownerThreadMs, long backgroundMs);
+    }
+
+    public interface HandoffListener {
+        /**
+         * Called on the main thread once the engine has switched to the new view's surface. Its
+         * next frame goes there; a paused player shows nothing new until it renders one.
+         *
+         * @param latencyMs time from {@link #handoffTo} until the engine switched surfaces.
+         */
+        void onHandoffComplete(XMediaPlayer player, long latencyMs);
+    }
+
+    public interface TransitionListener {
+        /**
+         * Called when a player chained with {@link #setNextMediaPlayer(ExMediaPlayer)} took over,
+         * on the listeners of both players. Exo plays the next item on {@code from} itself, so
+         * {@code to} is {@code from} and the gap is 0.
+         *
+         * @param gapMs time between {@code from} completing and the first frame of {@code to} (its
+         *              start for audio only), 0 if that came first.
+         */
+        void onTransition(XMediaPlayer from, XMediaPlayer to, long gapMs);
+    }
+
+    /**
+     * All player callbacks in one interface, see {@link #addEventListener(EventListener, int)} and
+     * {@link SimpleEventListener}.
+     */
+    public interface EventListener extends OnPreparedListener, OnCompletionListener, OnBufferingUpdateListener,
+            OnSeekCompleteListener, OnVideoSizeChangedListener, OnErrorListener, OnInfoListener {
+    }
 
+    // 分发时只读快照数组, 不分配对象, 回调里也可以增删监听
+    private final ListenerArray<OnInfoListener> infoListeners = new ListenerArray<>();
+    private final ListenerArray<OnPreparedListener> onPreparedListeners = new ListenerArray<>();
+    private final ListenerArray<OnSeekCompleteListener> onSeekCompleteListeners = new ListenerArray<>();
+    private final ListenerArray<OnBufferingUpdateListener> onBufferingUpdateListeners = new ListenerArray<>();
+    private final ListenerArray<OnCompletionListener> onCompletionListeners = new ListenerArray<>();
+    private final ListenerArray<OnVideoSizeChangedListener> onVideoSizeChangedListeners = new ListenerArray<>();
+    private final ListenerArray<OnErrorListener> onErrorListeners = new ListenerArray<>();
+    private final ListenerArray<PlaybackTimings.Listener> playbackTimingsListeners = new ListenerArray<>();
+
+    private final ListenerArray<StallTracker.Listener> stallListeners = new ListenerArray<>();
+    private final ListenerArray<TransitionListener> transitionListeners = new ListenerArray<>();
+
+    private PlaybackTimings mPlaybackTimings;
+    private final StallTracker mStallTracker = new StallTracker();
+
+    private boolean mScrubbing;
+    private boolean mSeekInFlight;
+    private long mSeekIssuedAt;
+    private int mPendingSeekMs = -1;
+    private int mPendingSeekMode;
+    private int mScrubTargetMs = -1;
+    private final Runnable mFlushPendingSeek = new Runnable() {
+        @Override
+        public void run() {
+            // 引擎一直没有回调seek完成, 不再等它
+            flushPendingSeek();
+        }
+    };
+    private long mSeekRequestedCount;
+    private long mSeekIssuedCount;
+
+    // 无缝切换: 当前播放器记下一个, 下一个记上一个, 切换完成后解开
+    private XMediaPlayer mNextPlayer;
+    private XMediaPlayer mPreviousPlayer;
+    private long mPreviousEndedAt = -1;
+    private long mStartedAsNextAt = -1;
+    private long mLastTransitionGapMs = -1;
+
+    private Handoff mHandoff;
+    private long mLastHandoffLatencyMs = -1;
+
+    /**
+     * @param exMediaPlayer an engine created on the current thread, which must have a looper.
+     */
     public XMediaPlayer(ExMediaPlayer exMediaPlayer) {
         mExMediaPlayer = exMediaPlayer;
+        Looper looper = Looper.myLooper();
+        mEngineHandler = looper != null ? new Handler(looper) : sMainHandler;
         componentListener = new ComponentListener();
         exMediaPlayer.setOnInfoListener(this);
         exMediaPlayer.setOnPreparedListener(this);
@@ -48,6 +170,10 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
         exMediaPlayer.setOnErrorListener(this);
     }
 
+    public ExMediaPlayer getExMediaPlayer() {
+        return mExMediaPlayer;
+    }
+
     public void setSurfaceView(SurfaceView surfaceView) {
         setVideoSurfaceHolder(surfaceView == null ? null : surfaceView.getHolder());
     }
@@ -71,12 +197,131 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
 
         if (textureView == null) {
             setVideoSurfaceInternal(null, true);
+            releaseDetachedTexture();
         } else {
             this.textureView.setSurfaceTextureListener(componentListener);
+            this.textureView.addOnAttachStateChangeListener(componentListener);
 
+            if (mDetachedTexture != null && !textureView.isAvailable()) {
+                // 新的view还没有创建自己的texture, 直接用保留的, engine的surface不变
+                reattachTexture();
+                return;
+            }
             SurfaceTexture surfaceTexture = textureView.isAvailable() ? textureView.getSurfaceTexture()
                     : null;
             setVideoSurfaceInternal(surfaceTexture == null ? null : new Surface(surfaceTexture), true);
+            releaseDetachedTexture();
+        }
+    }
+
+    /**
+     * How long the SurfaceTexture of a detached TextureView is kept for the view to be attached
+     * again. Re-attaching within this time continues on the same Surface, without a decoder
+     * reconfiguration or a black frame. 0 releases it on detach.
+     */
+    public void setDetachedSurfaceTimeoutMs(long timeoutMs) {
+        mDetachedSurfaceTimeoutMs = timeoutMs;
+    }
+
+    private void reattachTexture() {
+        sMainHandler.removeCallbacks(mReleaseDetachedTexture);
+        SurfaceTexture texture = mDetachedTexture;
+        mDetachedTexture = null;
+        textureView.setSurfaceTexture(texture);
+        Log.d(TAG, "reattach surface texture");
+    }
+
+    /**
+     * Call after the engine has let go of the Surface built on the texture.
+     */
+    private void releaseDetachedTexture() {
+        sMainHandler.removeCallbacks(mReleaseDetachedTexture);
+        if (mDetachedTexture != null) {
+            mDetachedTexture.release();
+            mDetachedTexture = null;
+        }
+    }
+
+    /**
+     * Moves rendering to {@code displayView}, a SurfaceView or TextureView. Unlike
+     * {@link #setTextureView} / {@link #setSurfaceView}, the engine keeps the current surface until
+     * the new one is available and then switches to it directly, never to null, so playback and the
+     * decoder keep running. The current view should stay attached until {@code listener} is called;
+     * a detached TextureView is kept (see {@link #setDetachedSurfaceTimeoutMs}), a SurfaceView can not be.
+     *
+     * @param listener may be null.
+     */
+    public void handoffTo(View displayView, HandoffListener listener) {
+        cancelHandoff();
+        Handoff handoff = new Handoff(displayView, listener);
+        if (displayView == textureView
+                || displayView instanceof SurfaceView && ((SurfaceView) displayView).getHolder() == surfaceHolder) {
+            completeHandoff(handoff, mSurface, ownsSurface);
+        } else if (displayView instanceof TextureView) {
+            TextureView view = (TextureView) displayView;
+            if (view.isAvailable()) {
+                completeHandoff(handoff, new Surface(view.getSurfaceTexture()), true);
+            } else if (mDetachedTexture != null) {
+                // 新view接上保留的texture, engine的surface不用变
+                completeHandoff(handoff, mSurface, ownsSurface);
+            } else {
+                mHandoff = handoff;
+                view.setSurfaceTextureListener(handoff);
+            }
+        } else if (displayView instanceof SurfaceView) {
+            SurfaceHolder holder = ((SurfaceView) displayView).getHolder();
+            Surface surface = holder.getSurface();
+            if (surface != null && surface.isValid()) {
+                completeHandoff(handoff, surface, false);
+            } else {
+                mHandoff = handoff;
+                holder.addCallback(handoff);
+            }
+        } else {
+            throw new IllegalArgumentException("displayView 必须是 SurfaceView 或 TextureView");
+        }
+    }
+
+    /**
+     * @return latency of the last completed {@link #handoffTo}, -1 if none.
+     */
+    public long getLastHandoffLatencyMs() {
+        return mLastHandoffLatencyMs;
+    }
+
+    private void completeHandoff(Handoff handoff, Surface surface, boolean ownsSurface) {
+        handoff.removeCallbacks();
+        if (mHandoff == handoff) mHandoff = null;
+        View view = handoff.target;
+        if (view != textureView && (!(view instanceof SurfaceView) || ((SurfaceView) view).getHolder() != surfaceHolder)) {
+            SurfaceTexture keptTexture = mDetachedTexture;
+            // 直接绑定新的view, 不经过setTextureView/setSurfaceView里的null
+            removeSurfaceCallbacks();
+            if (view instanceof TextureView) {
+                textureView = (TextureView) view;
+                textureView.setSurfaceTextureListener(componentListener);
+                textureView.addOnAttachStateChangeListener(componentListener);
+                if (keptTexture != null && surface == mSurface) {
+                    reattachTexture();
+                    keptTexture = null;
+                }
+            } else {
+                surfaceHolder = ((SurfaceView) view).getHolder();
+                surfaceHolder.addCallback(componentListener);
+            }
+            if (surface != mSurface) setVideoSurfaceInternal(surface, ownsSurface);
+            // 旧view留下的texture, engine已经不用了
+            if (keptTexture != null) releaseDetachedTexture();
+        }
+        mLastHandoffLatencyMs = SystemClock.elapsedRealtime() - handoff.startedAt;
+        Log.d(TAG, "handoff " + mLastHandoffLatencyMs + "ms");
+        if (handoff.listener != null) handoff.listener.onHandoffComplete(this, mLastHandoffLatencyMs);
+    }
+
+    private void cancelHandoff() {
+        if (mHandoff != null) {
+            mHandoff.removeCallbacks();
+            mHandoff = null;
         }
     }
 
@@ -127,6 +372,7 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
             } else {
                 textureView.setSurfaceTextureListener(null);
             }
+            textureView.removeOnAttachStateChangeListener(componentListener);
             textureView = null;
         }
 
@@ -138,42 +384,148 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
 
     @Override
     public void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        endStallSession();
+        mPlaybackTimings = new PlaybackTimings(mExMediaPlayer.getClass().getSimpleName());
+        mPlaybackTimings.dataSourceSetAt = SystemClock.elapsedRealtime();
         mExMediaPlayer.setDataSource(context, uri);
     }
 
     @Override
     public void setDataSource(Context context, Uri uri, Map<String, String> headers) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        endStallSession();
+        mPlaybackTimings = new PlaybackTimings(mExMediaPlayer.getClass().getSimpleName());
+        mPlaybackTimings.dataSourceSetAt = SystemClock.elapsedRealtime();
         mExMediaPlayer.setDataSource(context, uri, headers);
     }
 
     @Override
     public void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        endStallSession();
+        mPlaybackTimings = new PlaybackTimings(mExMediaPlayer.getClass().getSimpleName());
+        mPlaybackTimings.dataSourceSetAt = SystemClock.elapsedRealtime();
         mExMediaPlayer.setDataSource(path);
     }
 
     @Override
     public void prepareAsync() throws IllegalStateException {
+        if (mPlaybackTimings != null) mPlaybackTimings.prepareStartedAt = SystemClock.elapsedRealtime();
         mExMediaPlayer.prepareAsync();
     }
 
     @Override
     public void start() throws IllegalStateException {
+        if (mPlaybackTimings != null && mPlaybackTimings.startCalledAt == PlaybackTimings.UNSET) {
+            mPlaybackTimings.startCalledAt = SystemClock.elapsedRealtime();
+        }
         mExMediaPlayer.start();
+        mStallTracker.onPlay();
     }
 
     @Override
     public void stop() throws IllegalStateException {
         mExMediaPlayer.stop();
+        mStallTracker.onPause();
     }
 
     @Override
     public void pause() throws IllegalStateException {
         mExMediaPlayer.pause();
+        mStallTracker.onPause();
     }
 
     @Override
     public void seekTo(int msec) throws IllegalStateException {
-        mExMediaPlayer.seekTo(msec);
+        mSeekRequestedCount++;
+        issueSeek(msec, SEEK_DEFAULT);
+    }
+
+    @Override
+    public void seekTo(int msec, int mode) throws IllegalStateException {
+        mSeekRequestedCount++;
+        issueSeek(msec, mode);
+    }
+
+    private void issueSeek(int msec, int mode) {
+        mSeekIssuedCount++;
+        mSeekInFlight = true;
+        mSeekIssuedAt = SystemClock.elapsedRealtime();
+        mStallTracker.onSeek();
+        if (mode == SEEK_DEFAULT) {
+            mExMediaPlayer.seekTo(msec);
+        } else {
+            mExMediaPlayer.seekTo(msec, mode);
+        }
+    }
+
+    private void flushPendingSeek() {
+        mEngineHandler.removeCallbacks(mFlushPendingSeek);
+        if (mPendingSeekMs < 0) return;
+        int msec = mPendingSeekMs;
+        mPendingSeekMs = -1;
+        issueSeek(msec, mPendingSeekMode);
+    }
+
+    /**
+     * Starts a scrub gesture, e.g. when the user touches the seek bar. Until {@link #endScrub()},
+     * positions from {@link #updateScrub(int)} are coalesced: while a seek is in flight only the newest
+     * one is kept, and seeks go to the nearest key frame.
+     */
+    public void beginScrub() {
+        mScrubbing = true;
+        mScrubTargetMs = -1;
+    }
+
+    public void updateScrub(int positionMs) {
+        if (!mScrubbing) beginScrub();
+        mSeekRequestedCount++;
+        mScrubTargetMs = positionMs;
+        seekOrQueue(positionMs, SEEK_CLOSEST_SYNC);
+    }
+
+    /**
+     * Ends the gesture with one accurate seek to the last scrub position.
+     */
+    public void endScrub() {
+        if (!mScrubbing) return;
+        mScrubbing = false;
+        if (mScrubTargetMs >= 0) {
+            seekOrQueue(mScrubTargetMs, SEEK_CLOSEST);
+            mScrubTargetMs = -1;
+        }
+    }
+
+    public boolean isScrubbing() {
+        return mScrubbing;
+    }
+
+    private void seekOrQueue(int msec, int mode) {
+        long inFlightMs = SystemClock.elapsedRealtime() - mSeekIssuedAt;
+        if (mSeekInFlight && inFlightMs < SEEK_IN_FLIGHT_TIMEOUT_MS) {
+            // latest wins
+            if (mPendingSeekMs < 0) {
+                mEngineHandler.postDelayed(mFlushPendingSeek, SEEK_IN_FLIGHT_TIMEOUT_MS - inFlightMs);
+            }
+            mPendingSeekMs = msec;
+            mPendingSeekMode = mode;
+        } else {
+            mEngineHandler.removeCallbacks(mFlushPendingSeek);
+            mPendingSeekMs = -1;
+            issueSeek(msec, mode);
+        }
+    }
+
+    /**
+     * @return seeks asked for through seekTo and updateScrub.
+     */
+    public long getSeekRequestedCount() {
+        return mSeekRequestedCount;
+    }
+
+    /**
+     * @return seeks actually sent to the engine after coalescing.
+     */
+    public long getSeekIssuedCount() {
+        return mSeekIssuedCount;
     }
 
     private void clearListeners() {
@@ -184,14 +536,62 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
         onVideoSizeChangedListeners.clear();
         onErrorListeners.clear();
         infoListeners.clear();;
+        playbackTimingsListeners.clear();
+        stallListeners.clear();
+        transitionListeners.clear();
+    }
+
+    /**
+     * @return rebuffering metrics of the current session so far.
+     */
+    public StallTracker.Snapshot getStallSnapshot() {
+        return mStallTracker.snapshot();
+    }
+
+    private void endStallSession() {
+        if (mStallTracker.hasSession()) {
+            StallTracker.Snapshot snapshot = mStallTracker.snapshot();
+            for (Object listener : stallListeners.snapshot()) {
+                ((StallTracker.Listener) listener).onStallSessionEnd(this, snapshot);
+            }
+        }
+        mStallTracker.reset();
+    }
+
+    /**
+     * @return startup timestamps of the current session, or null before setDataSource.
+     */
+    public PlaybackTimings getPlaybackTimings() {
+        return mPlaybackTimings;
+    }
+
+    private void recordInfo(int what) {
+        PlaybackTimings timings = mPlaybackTimings;
+        if (timings == null) return;
+        long now = SystemClock.elapsedRealtime();
+        if (what == MEDIA_INFO_DATA_SOURCE_RESOLVED && timings.dataSourceResolvedAt == PlaybackTimings.UNSET) {
+            timings.dataSourceResolvedAt = now;
+        } else if (what == MEDIA_INFO_VIDEO_RENDERING_START && timings.firstFrameAt == PlaybackTimings.UNSET) {
+            timings.firstFrameAt = now;
+            for (Object listener : playbackTimingsListeners.snapshot()) {
+                ((PlaybackTimings.Listener) listener).onPlaybackTimings(this, timings);
+            }
+        }
     }
 
     @Override
     public void reset() {
+        endStallSession();
+        mPlaybackTimings = null;
+        resetSeekState();
+        unlinkTransition();
         mExMediaPlayer.reset();
     }
 
     public void release() {
+        endStallSession();
+        cancelHandoff();
+        unlinkTransition();
         mExMediaPlayer.release();
 
         removeSurfaceCallbacks();
@@ -200,10 +600,118 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
             mSurface.release();
             Log.d(TAG, "mSurface.release()");
         }
+        releaseDetachedTexture();
 
        clearListeners();
     }
 
+    /**
+     * Detaches the surface and listeners right away and resets the engine afterwards: on a background
+     * thread if it implements {@link BackgroundTeardown}, otherwise in a later message on the thread
+     * that created it. Do not use the player again before {@code callback} is called.
+     */
+    public void resetAsync(TeardownCallback callback) {
+        long start = SystemClock.elapsedRealtime();
+        endStallSession();
+        mPlaybackTimings = null;
+        detach();
+        teardown(false, callback, SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Detaches the surface and listeners right away and releases the engine afterwards, on the same
+     * thread as {@link #resetAsync}.
+     */
+    public void releaseAsync(TeardownCallback callback) {
+        long start = SystemClock.elapsedRealtime();
+        endStallSession();
+        detach();
+        teardown(true, callback, SystemClock.elapsedRealtime() - start);
+    }
+
+    private void resetSeekState() {
+        mScrubbing = false;
+        mSeekInFlight = false;
+        mPendingSeekMs = -1;
+        mScrubTargetMs = -1;
+        mEngineHandler.removeCallbacks(mFlushPendingSeek);
+    }
+
+    private void detach() {
+        cancelHandoff();
+        resetSeekState();
+        unlinkTransition();
+        clear();
+        // 引擎在后台线程里可能还会用到surface, 必须先在这里解绑
+        if (mSurface != null) setVideoSurfaceInternal(null, false);
+        releaseDetachedTexture();
+    }
+
+    private void teardown(final boolean release, final TeardownCallback callback, long callerThreadMs) {
+        if (mExMediaPlayer instanceof BackgroundTeardown) {
+            long start = SystemClock.elapsedRealtime();
+            final Runnable work = ((BackgroundTeardown) mExMediaPlayer).prepareTeardown(release);
+            final long ownerThreadMs = callerThreadMs + SystemClock.elapsedRealtime() - start;
+            getTeardownExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    runTeardown(work, release, callback, ownerThreadMs, true);
+                }
+            });
+        } else {
+            // 不能在其它线程碰引擎, 推迟到它自己的线程上, 至少不占调用方这一帧, 但耗时还是算在这个线程上
+            final long ownerThreadMs = callerThreadMs;
+            mEngineHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    runTeardown(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (release) {
+                                mExMediaPlayer.release();
+                            } else {
+                                mExMediaPlayer.reset();
+                            }
+                        }
+                    }, release, callback, ownerThreadMs, false);
+                }
+            });
+        }
+    }
+
+    private void runTeardown(Runnable work, boolean release, final TeardownCallback callback, long ownerThreadMs,
+                             boolean background) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            work.run();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "teardown failed " + e.getMessage());
+        }
+        long teardownMs = SystemClock.elapsedRealtime() - start;
+        final long totalOwnerThreadMs = background ? ownerThreadMs : ownerThreadMs + teardownMs;
+        final long backgroundMs = background ? teardownMs : 0;
+        Log.d(TAG, (release ? "release" : "reset") + " owner thread " + totalOwnerThreadMs + "ms, background "
+                + backgroundMs + "ms");
+        if (callback != null) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onTeardownComplete(XMediaPlayer.this, totalOwnerThreadMs, backgroundMs);
+                }
+            });
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getTeardownExecutor() {
+        if (sTeardownExecutor == null) {
+            sTeardownExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_TEARDOWNS, MAX_CONCURRENT_TEARDOWNS,
+                    60 * 1000L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            sTeardownExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sTeardownExecutor;
+    }
+
     @Override
     public long getDuration() {
         return mExMediaPlayer.getDuration();
@@ -269,9 +777,134 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
         mExMediaPlayer.setWakeMode(context, mode);
     }
 
+    /**
+     * Chains another XMediaPlayer of the same engine. When this one completes, its TextureView or
+     * SurfaceHolder is handed over to the next one, and {@link TransitionListener}s get the gap.
+     * The next one cannot get the surface earlier: a surface takes frames from one decoder at a
+     * time, so the gap includes the next engine's first frame on it.
+     */
     @Override
     public void setNextMediaPlayer(ExMediaPlayer nextMediaPlayer) throws UnsupportedOperationException {
-        mExMediaPlayer.setNextMediaPlayer(nextMediaPlayer);
+        XMediaPlayer next = nextMediaPlayer instanceof XMediaPlayer ? (XMediaPlayer) nextMediaPlayer : null;
+        mExMediaPlayer.setNextMediaPlayer(next != null ? next.mExMediaPlayer : nextMediaPlayer);
+        if (mNextPlayer != null) mNextPlayer.mPreviousPlayer = null;
+        mNextPlayer = next;
+        if (next != null) {
+            if (next.mPreviousPlayer != null) next.mPreviousPlayer.mNextPlayer = null;
+            next.mPreviousPlayer = this;
+            next.mPreviousEndedAt = -1;
+            next.mStartedAsNextAt = -1;
+        }
+    }
+
+    /**
+     * @return gap of the last transition into this player (for Exo, within it), -1 if none.
+     */
+    public long getLastTransitionGapMs() {
+        return mLastTransitionGapMs;
+    }
+
+    private void unlinkTransition() {
+        if (mNextPlayer != null) {
+            mNextPlayer.mPreviousPlayer = null;
+            mNextPlayer = null;
+        }
+        if (mPreviousPlayer != null) {
+            mPreviousPlayer.mNextPlayer = null;
+            mPreviousPlayer = null;
+        }
+        mPreviousEndedAt = -1;
+        mStartedAsNextAt = -1;
+    }
+
+    /**
+     * 下一个播放器还没有界面, 直接把当前的view交给它
+     */
+    private void handOverSurface(XMediaPlayer next) {
+        if (textureView != null) {
+            TextureView view = textureView;
+            setTextureView(null);
+            next.setTextureView(view);
+        } else if (surfaceHolder != null) {
+            SurfaceHolder holder = surfaceHolder;
+            setVideoSurfaceHolder(null);
+            next.setVideoSurfaceHolder(holder);
+        }
+    }
+
+    private void onStartedAsNext() {
+        long now = SystemClock.elapsedRealtime();
+        if (mPreviousPlayer != null) {
+            mStartedAsNextAt = now;
+            mStallTracker.onPlay();
+            maybeFinishTransition();
+        } else if (mNextPlayer != null) {
+            // Exo在同一个播放器里切到了下一个, next只提供了地址, 不会播放
+            XMediaPlayer next = mNextPlayer;
+            unlinkTransition();
+            mLastTransitionGapMs = 0;
+            dispatchTransition(this, next, this, this, 0);
+        }
+    }
+
+    private void maybeFinishTransition() {
+        if (mPreviousPlayer == null || mPreviousEndedAt < 0 || mStartedAsNextAt < 0) return;
+        // 以下一个的首帧为准, 没有视频时用开始播放的时间
+        long shownAt = mStartedAsNextAt;
+        if (getVideoWidth() > 0) {
+            PlaybackTimings timings = mPlaybackTimings;
+            if (timings == null || timings.firstFrameAt == PlaybackTimings.UNSET) return;
+            shownAt = Math.max(shownAt, timings.firstFrameAt);
+        }
+        XMediaPlayer previous = mPreviousPlayer;
+        long gapMs = Math.max(0, shownAt - mPreviousEndedAt);
+        unlinkTransition();
+        mLastTransitionGapMs = gapMs;
+        Log.d(TAG, "transition gap " + gapMs + "ms");
+        dispatchTransition(previous, this, previous, this, gapMs);
+    }
+
+    /**
+     * Notifies the listeners of {@code a} and {@code b}, each once.
+     */
+    private static void dispatchTransition(XMediaPlayer a, XMediaPlayer b, XMediaPlayer from, XMediaPlayer to, long gapMs) {
+        for (Object listener : a.transitionListeners.snapshot()) {
+            ((TransitionListener) listener).onTransition(from, to, gapMs);
+        }
+        for (Object listener : b.transitionListeners.snapshot()) {
+            if (!a.transitionListeners.contains((TransitionListener) listener)) {
+                ((TransitionListener) listener).onTransition(from, to, gapMs);
+            }
+        }
+    }
+
+    @Override
+    public List<String> setOptions(PlayerOptions options) {
+        List<String> unsupported = mExMediaPlayer.setOptions(options);
+        if (!unsupported.isEmpty()) {
+            Log.w(TAG, mExMediaPlayer.getClass().getSimpleName() + " 不支持 " + unsupported);
+        }
+        return unsupported;
+    }
+
+    @Override
+    public List<TrackInfo> getTrackInfo() {
+        return mExMediaPlayer.getTrackInfo();
+    }
+
+    @Override
+    public void selectTrack(int index) throws UnsupportedOperationException {
+        mExMediaPlayer.selectTrack(index);
+    }
+
+    @Override
+    public void clearTrackSelection(int type) throws UnsupportedOperationException {
+        mExMediaPlayer.clearTrackSelection(type);
+    }
+
+    @Override
+    public void setTrackConstraints(TrackConstraints constraints) throws UnsupportedOperationException {
+        mExMediaPlayer.setTrackConstraints(constraints);
     }
 
     @Deprecated
@@ -322,7 +955,8 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
 //        if (listener != null) addOnInfoListener(listener);
     }
 
-    public class ComponentListener implements TextureView.SurfaceTextureListener, SurfaceHolder.Callback {
+    public class ComponentListener implements TextureView.SurfaceTextureListener, SurfaceHolder.Callback,
+            View.OnAttachStateChangeListener {
 
         @Override
         public void surfaceCreated(SurfaceHolder holder) {
@@ -351,8 +985,88 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
 
         @Override
         public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+            if (mDetachedSurfaceTimeoutMs > 0 && mSurface != null) {
+                // 自己持有texture, engine继续用原来的surface
+                releaseDetachedTexture();
+                mDetachedTexture = surface;
+                sMainHandler.postDelayed(mReleaseDetachedTexture, mDetachedSurfaceTimeoutMs);
+                return false;
+            }
             setVideoSurfaceInternal(null, true);
-            return false;
+            return true;
+        }
+
+        @Override
+        public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+
+        }
+
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            // 要在第一次绘制前设置, 否则TextureView会新建一个texture
+            if (mDetachedTexture != null && v == textureView) {
+                reattachTexture();
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+
+        }
+    }
+
+    /**
+     * Waits for the surface of a {@link #handoffTo} target.
+     */
+    private class Handoff implements TextureView.SurfaceTextureListener, SurfaceHolder.Callback {
+
+        final View target;
+        final HandoffListener listener;
+        final long startedAt = SystemClock.elapsedRealtime();
+
+        Handoff(View target, HandoffListener listener) {
+            this.target = target;
+            this.listener = listener;
+        }
+
+        void removeCallbacks() {
+            if (target instanceof TextureView) {
+                TextureView view = (TextureView) target;
+                if (view.getSurfaceTextureListener() == this) view.setSurfaceTextureListener(null);
+            } else if (target instanceof SurfaceView) {
+                ((SurfaceView) target).getHolder().removeCallback(this);
+            }
+        }
+
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            completeHandoff(this, holder.getSurface(), false);
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            cancelHandoff();
+        }
+
+        @Override
+        public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+            completeHandoff(this, new Surface(surface), true);
+        }
+
+        @Override
+        public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+
+        }
+
+        @Override
+        public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+            cancelHandoff();
+            return true;
         }
 
         @Override
@@ -363,53 +1077,82 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
 
     @Override
     public boolean onInfo(ExMediaPlayer mp, int what, int extra) {
-        for (ExMediaPlayer.OnInfoListener onInfoListener : infoListeners) {
-            onInfoListener.onInfo(mp, what, extra);
+        recordInfo(what);
+        if (what == MEDIA_INFO_BUFFERING_START) {
+            mStallTracker.onBufferingStart();
+        } else if (what == MEDIA_INFO_BUFFERING_END) {
+            mStallTracker.onBufferingEnd();
+        } else if (what == MEDIA_INFO_VIDEO_RENDERING_START && !mStallTracker.hasSession()) {
+            // 有的引擎prepared后自动播放, 不会调用start
+            mStallTracker.onFirstFrame(mExMediaPlayer.isPlaying());
+        }
+        if (what == MEDIA_INFO_VIDEO_RENDERING_START) {
+            maybeFinishTransition();
+        } else if (what == MEDIA_INFO_STARTED_AS_NEXT) {
+            onStartedAsNext();
         }
-        return true;
+        boolean handled = false;
+        for (Object listener : infoListeners.snapshot()) {
+            handled |= ((OnInfoListener) listener).onInfo(mp, what, extra);
+        }
+        return handled;
     }
 
     @Override
     public void onPrepared(ExMediaPlayer mp) {
-        for (ExMediaPlayer.OnPreparedListener onPreparedListener : onPreparedListeners) {
-            onPreparedListener.onPrepared(mp);
+        if (mPlaybackTimings != null && mPlaybackTimings.preparedAt == PlaybackTimings.UNSET) {
+            mPlaybackTimings.preparedAt = SystemClock.elapsedRealtime();
+        }
+        for (Object listener : onPreparedListeners.snapshot()) {
+            ((OnPreparedListener) listener).onPrepared(mp);
         }
     }
 
     @Override
     public void onSeekComplete(ExMediaPlayer mp) {
-        for (ExMediaPlayer.OnSeekCompleteListener onSeekCompleteListener : onSeekCompleteListeners) {
-            onSeekCompleteListener.onSeekComplete(mp);
+        mSeekInFlight = false;
+        mStallTracker.onSeekComplete();
+        flushPendingSeek();
+        for (Object listener : onSeekCompleteListeners.snapshot()) {
+            ((OnSeekCompleteListener) listener).onSeekComplete(mp);
         }
     }
 
     @Override
     public void onBufferingUpdate(ExMediaPlayer mp, int percent) {
-        for (ExMediaPlayer.OnBufferingUpdateListener onBufferingUpdateListener : onBufferingUpdateListeners) {
-            onBufferingUpdateListener.onBufferingUpdate(mp, percent);
+        for (Object listener : onBufferingUpdateListeners.snapshot()) {
+            ((OnBufferingUpdateListener) listener).onBufferingUpdate(mp, percent);
         }
     }
 
     @Override
     public void onCompletion(ExMediaPlayer mp) {
-        for (ExMediaPlayer.OnCompletionListener onCompletionListener : onCompletionListeners) {
-            onCompletionListener.onCompletion(mp);
+        mStallTracker.onPause();
+        XMediaPlayer next = mNextPlayer;
+        if (next != null && !isLooping()) {
+            handOverSurface(next);
+            next.mPreviousEndedAt = SystemClock.elapsedRealtime();
+            next.maybeFinishTransition();
+        }
+        for (Object listener : onCompletionListeners.snapshot()) {
+            ((OnCompletionListener) listener).onCompletion(mp);
         }
     }
 
     @Override
     public void onVideoSizeChanged(ExMediaPlayer mp, int width, int height) {
-        for (ExMediaPlayer.OnVideoSizeChangedListener onVideoSizeChangedListener : onVideoSizeChangedListeners) {
-            onVideoSizeChangedListener.onVideoSizeChanged(mp, width, height);
+        for (Object listener : onVideoSizeChangedListeners.snapshot()) {
+            ((OnVideoSizeChangedListener) listener).onVideoSizeChanged(mp, width, height);
         }
     }
 
     @Override
     public boolean onError(ExMediaPlayer mp, int what, int extra) {
-        for (ExMediaPlayer.OnErrorListener onErrorListener : onErrorListeners) {
-            onErrorListener.onError(mp, what, extra);
+        boolean handled = false;
+        for (Object listener : onErrorListeners.snapshot()) {
+            handled |= ((OnErrorListener) listener).onError(mp, what, extra);
         }
-        return true;
+        return handled;
     }
 
     public void addOnPreparedListener(ExMediaPlayer.OnPreparedListener listener) {
@@ -443,6 +1186,42 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
         infoListeners.add(listener);
     }
 
+    /**
+     * Registers one listener for the events selected by {@code events}, e.g.
+     * {@code EVENT_PREPARED | EVENT_ERROR}.
+     */
+    public void addEventListener(EventListener listener, int events) {
+        if ((events & EVENT_PREPARED) != 0) onPreparedListeners.add(listener);
+        if ((events & EVENT_COMPLETION) != 0) onCompletionListeners.add(listener);
+        if ((events & EVENT_BUFFERING_UPDATE) != 0) onBufferingUpdateListeners.add(listener);
+        if ((events & EVENT_SEEK_COMPLETE) != 0) onSeekCompleteListeners.add(listener);
+        if ((events & EVENT_VIDEO_SIZE_CHANGED) != 0) onVideoSizeChangedListeners.add(listener);
+        if ((events & EVENT_ERROR) != 0) onErrorListeners.add(listener);
+        if ((events & EVENT_INFO) != 0) infoListeners.add(listener);
+    }
+
+    public void removeEventListener(EventListener listener) {
+        onPreparedListeners.remove(listener);
+        onCompletionListeners.remove(listener);
+        onBufferingUpdateListeners.remove(listener);
+        onSeekCompleteListeners.remove(listener);
+        onVideoSizeChangedListeners.remove(listener);
+        onErrorListeners.remove(listener);
+        infoListeners.remove(listener);
+    }
+
+    public void addPlaybackTimingsListener(PlaybackTimings.Listener listener) {
+        playbackTimingsListeners.add(listener);
+    }
+
+    public void addStallListener(StallTracker.Listener listener) {
+        stallListeners.add(listener);
+    }
+
+    public void addTransitionListener(TransitionListener listener) {
+        transitionListeners.add(listener);
+    }
+
 
     public void removeOnPreparedListener(ExMediaPlayer.OnPreparedListener listener) {
         onPreparedListeners.remove(listener);
@@ -474,4 +1253,16 @@ public class XMediaPlayer implements ExMediaPlayer, ExMediaPlayer.OnInfoListener
     public void removeOnInfoListener(ExMediaPlayer.OnInfoListener listener) {
         infoListeners.remove(listener);
     }
+
+    public void removePlaybackTimingsListener(PlaybackTimings.Listener listener) {
+        playbackTimingsListeners.remove(listener);
+    }
+
+    public void removeStallListener(StallTracker.Listener listener) {
+        stallListeners.remove(listener);
+    }
+
+    public void removeTransitionListener(TransitionListener listener) {
+        transitionListeners.remove(listener);
+    }
 }
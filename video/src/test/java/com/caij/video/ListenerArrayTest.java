@@ -0,0 +1,88 @@
+package com.caij.video;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ListenerArrayTest {
+
+    private ListenerArray<Object> mArray;
+
+    @Before
+    public void setUp() {
+        mArray = new ListenerArray<>();
+    }
+
+    @Test
+    public void add_keepsOrder() {
+        Object a = new Object();
+        Object b = new Object();
+        mArray.add(a);
+        mArray.add(b);
+
+        assertArrayEquals(new Object[]{a, b}, mArray.snapshot());
+    }
+
+    @Test
+    public void add_ignoresNull() {
+        mArray.add(null);
+        assertEquals(0, mArray.snapshot().length);
+    }
+
+    @Test
+    public void remove_firstMatchOnly() {
+        Object a = new Object();
+        Object b = new Object();
+        mArray.add(a);
+        mArray.add(b);
+        mArray.add(a);
+
+        mArray.remove(a);
+        assertArrayEquals(new Object[]{b, a}, mArray.snapshot());
+
+        mArray.remove(a);
+        assertArrayEquals(new Object[]{b}, mArray.snapshot());
+    }
+
+    @Test
+    public void remove_unknownListener_keepsArray() {
+        Object a = new Object();
+        mArray.add(a);
+        Object[] before = mArray.snapshot();
+
+        mArray.remove(new Object());
+        mArray.remove(null);
+        assertSame(before, mArray.snapshot());
+    }
+
+    @Test
+    public void snapshot_isNotModifiedByLaterChanges() {
+        Object a = new Object();
+        Object b = new Object();
+        mArray.add(a);
+        Object[] snapshot = mArray.snapshot();
+
+        mArray.add(b);
+        mArray.remove(a);
+        assertArrayEquals(new Object[]{a}, snapshot);
+        assertArrayEquals(new Object[]{b}, mArray.snapshot());
+    }
+
+    @Test
+    public void snapshot_doesNotAllocate() {
+        mArray.add(new Object());
+        assertSame(mArray.snapshot(), mArray.snapshot());
+    }
+
+    @Test
+    public void clear() {
+        Object a = new Object();
+        mArray.add(a);
+        Object[] snapshot = mArray.snapshot();
+
+        mArray.clear();
+        assertEquals(0, mArray.snapshot().length);
+        assertEquals(1, snapshot.length);
+    }
+}
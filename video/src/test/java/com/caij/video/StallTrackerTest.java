@@ -0,0 +1,182 @@
+package com.caij.video;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StallTrackerTest {
+
+    private long mNow;
+    private StallTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mNow = 100000;
+        mTracker = new StallTracker(new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return mNow;
+            }
+
+            @Override
+            public long elapsedRealtime() {
+                return mNow;
+            }
+        });
+    }
+
+    private void advance(long ms) {
+        mNow += ms;
+    }
+
+    @Test
+    public void bufferingBeforeFirstFrame_isNotAStall() {
+        mTracker.onPlay();
+        mTracker.onBufferingStart();
+        advance(2000);
+        mTracker.onBufferingEnd();
+
+        assertFalse(mTracker.hasSession());
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(0, snapshot.stallCount);
+        assertEquals(0, snapshot.playingMs);
+    }
+
+    @Test
+    public void stall_isCountedAndExcludedFromPlayingTime() {
+        mTracker.onFirstFrame(true);
+        advance(1000);
+        mTracker.onBufferingStart();
+        advance(500);
+        mTracker.onBufferingEnd();
+        advance(1500);
+
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(1, snapshot.stallCount);
+        assertEquals(0, snapshot.seekStallCount);
+        assertEquals(500, snapshot.totalStallMs);
+        assertEquals(500, snapshot.longestStallMs);
+        assertEquals(2500, snapshot.playingMs);
+        assertEquals(0.2f, snapshot.getRebufferRatio(), 0.0001f);
+    }
+
+    @Test
+    public void longestStall() {
+        mTracker.onFirstFrame(true);
+        mTracker.onBufferingStart();
+        advance(300);
+        mTracker.onBufferingEnd();
+        mTracker.onBufferingStart();
+        advance(700);
+        mTracker.onBufferingEnd();
+
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(2, snapshot.stallCount);
+        assertEquals(1000, snapshot.totalStallMs);
+        assertEquals(700, snapshot.longestStallMs);
+    }
+
+    @Test
+    public void snapshot_includesOngoingStall() {
+        mTracker.onFirstFrame(true);
+        advance(1000);
+        mTracker.onBufferingStart();
+        advance(400);
+
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(1, snapshot.stallCount);
+        assertEquals(400, snapshot.totalStallMs);
+        assertEquals(1000, snapshot.playingMs);
+    }
+
+    @Test
+    public void bufferingWhilePaused_isNotAStall() {
+        mTracker.onFirstFrame(true);
+        advance(1000);
+        mTracker.onPause();
+        mTracker.onBufferingStart();
+        advance(3000);
+        mTracker.onBufferingEnd();
+
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(0, snapshot.stallCount);
+        assertEquals(1000, snapshot.playingMs);
+    }
+
+    @Test
+    public void pause_endsStall() {
+        mTracker.onFirstFrame(true);
+        mTracker.onBufferingStart();
+        advance(300);
+        mTracker.onPause();
+        advance(3000);
+        mTracker.onBufferingEnd();
+
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(1, snapshot.stallCount);
+        assertEquals(300, snapshot.totalStallMs);
+        assertEquals(0, snapshot.playingMs);
+    }
+
+    @Test
+    public void stallDuringSeek_isSeekStall() {
+        mTracker.onFirstFrame(true);
+        advance(1000);
+        mTracker.onSeek();
+        mTracker.onBufferingStart();
+        advance(600);
+        mTracker.onSeekComplete();
+        mTracker.onBufferingEnd();
+
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(1, snapshot.stallCount);
+        assertEquals(1, snapshot.seekStallCount);
+        assertEquals(600, snapshot.seekStallMs);
+    }
+
+    @Test
+    public void stallShortlyAfterSeek_isSeekStall() {
+        mTracker.onFirstFrame(true);
+        mTracker.onSeek();
+        mTracker.onSeekComplete();
+        advance(1000);
+        mTracker.onBufferingStart();
+        advance(200);
+        mTracker.onBufferingEnd();
+
+        assertEquals(1, mTracker.snapshot().seekStallCount);
+    }
+
+    @Test
+    public void stallLongAfterSeek_isNotSeekStall() {
+        mTracker.onFirstFrame(true);
+        mTracker.onSeek();
+        mTracker.onSeekComplete();
+        advance(1001);
+        mTracker.onBufferingStart();
+        advance(200);
+        mTracker.onBufferingEnd();
+
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(1, snapshot.stallCount);
+        assertEquals(0, snapshot.seekStallCount);
+    }
+
+    @Test
+    public void reset_clearsSession() {
+        mTracker.onFirstFrame(true);
+        mTracker.onBufferingStart();
+        advance(500);
+        mTracker.onBufferingEnd();
+
+        mTracker.reset();
+
+        assertFalse(mTracker.hasSession());
+        StallTracker.Snapshot snapshot = mTracker.snapshot();
+        assertEquals(0, snapshot.stallCount);
+        assertEquals(0, snapshot.totalStallMs);
+        assertEquals(0, snapshot.playingMs);
+        assertEquals(0, snapshot.getRebufferRatio(), 0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.caij.video;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailLoaderTest {
+
+    private static final String VTT_URL = "https://cdn.example.com/video/1/thumbs.vtt";
+
+    @Test
+    public void parse_spriteCues() throws IOException {
+        String vtt = "WEBVTT\n"
+                + "\n"
+                + "00:00:00.000 --> 00:00:05.000\n"
+                + "sprite-0.jpg#xywh=0,0,160,90\n"
+                + "\n"
+                + "00:00:05.000 --> 00:00:10.500\n"
+                + "sprite-0.jpg#xywh=160,0,160,90\n"
+                + "\n"
+                + "01:00:10.000 --> 01:00:15.000 align:start\n"
+                + "sprite-1.jpg#xywh=pixel:0, 90, 160, 90\n";
+
+        List<ThumbnailLoader.Cue> cues = ThumbnailLoader.parse(VTT_URL, vtt);
+        assertEquals(3, cues.size());
+
+        ThumbnailLoader.Cue first = cues.get(0);
+        assertEquals(0, first.startMs);
+        assertEquals(5000, first.endMs);
+        assertEquals("https://cdn.example.com/video/1/sprite-0.jpg", first.spriteUrl);
+        assertRegion(first, 0, 0, 160, 90);
+
+        ThumbnailLoader.Cue second = cues.get(1);
+        assertEquals(5000, second.startMs);
+        assertEquals(10500, second.endMs);
+        assertRegion(second, 160, 0, 160, 90);
+
+        ThumbnailLoader.Cue third = cues.get(2);
+        assertEquals((3600 + 10) * 1000, third.startMs);
+        assertEquals((3600 + 15) * 1000, third.endMs);
+        assertEquals("https://cdn.example.com/video/1/sprite-1.jpg", third.spriteUrl);
+        assertRegion(third, 0, 90, 160, 90);
+    }
+
+    @Test
+    public void parse_wholeImageCues() throws IOException {
+        String vtt = "WEBVTT\r\n"
+                + "\r\n"
+                + "1\r\n"
+                + "00:00.000 --> 00:02.000\r\n"
+                + "/thumbs/0.jpg\r\n"
+                + "\r\n"
+                + "2\r\n"
+                + "00:02.000 --> 00:04.000\r\n"
+                + "https://other.example.com/1.jpg\r\n";
+
+        List<ThumbnailLoader.Cue> cues = ThumbnailLoader.parse(VTT_URL, vtt);
+        assertEquals(2, cues.size());
+        assertEquals(0, cues.get(0).startMs);
+        assertEquals(2000, cues.get(0).endMs);
+        assertEquals("https://cdn.example.com/thumbs/0.jpg", cues.get(0).spriteUrl);
+        assertFalse(cues.get(0).hasRegion());
+        assertEquals("https://other.example.com/1.jpg", cues.get(1).spriteUrl);
+        assertFalse(cues.get(1).hasRegion());
+    }
+
+    @Test
+    public void parse_skipsMalformedCues() throws IOException {
+        String vtt = "WEBVTT\n"
+                + "\n"
+                + "00:00:aa.000 --> 00:00:05.000\n"
+                + "bad-time.jpg\n"
+                + "\n"
+                + "00:00:05.000 --> 00:00:10.000\n"
+                + "\n"
+                + "00:00:10.000 --> 00:00:15.000\n"
+                + "bad-fragment.jpg#xywh=1,2,3\n"
+                + "\n"
+                + "00:00:15.000 --> 00:00:20.000\n";
+
+        List<ThumbnailLoader.Cue> cues = ThumbnailLoader.parse(VTT_URL, vtt);
+        // 片段不对的还能用整张图
+        assertEquals(1, cues.size());
+        assertEquals(10000, cues.get(0).startMs);
+        assertEquals("https://cdn.example.com/video/1/bad-fragment.jpg", cues.get(0).spriteUrl);
+        assertFalse(cues.get(0).hasRegion());
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_invalidVttUrl() throws IOException {
+        ThumbnailLoader.parse("not a url", "WEBVTT\n");
+    }
+
+    private static void assertRegion(ThumbnailLoader.Cue cue, int x, int y, int width, int height) {
+        assertTrue(cue.hasRegion());
+        assertEquals(x, cue.x);
+        assertEquals(y, cue.y);
+        assertEquals(width, cue.width);
+        assertEquals(height, cue.height);
+    }
+}